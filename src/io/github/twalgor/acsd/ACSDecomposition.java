@@ -133,6 +133,11 @@ public class ACSDecomposition {
       Graph h = minor.getGraph();
       assert g.fullComponents(sep).size() >= 2;
       XBitSet sep1 = sep.convert(minor.map);
+      if (sep1.isEmpty()) {
+        // the separator lies in a part removed for an earlier separator,
+        // as happens for atoms other than the largest
+        continue;
+      }
       if (!h.isClique(sep1)) {
         assert h.fullComponents(sep1).size() >= 2;  
       }
@@ -173,6 +178,25 @@ public class ACSDecomposition {
       }
       minor = new Minor(g, components);
     }
+
+    // the connected components of the graph not containing the atom,
+    // which no separator removes
+    Graph h = minor.getGraph();
+    XBitSet atom1 = atom.convert(minor.map);
+    XBitSet vs = new XBitSet(h.n);
+    for (XBitSet compo: h.separatedComponents(new XBitSet(h.n))) {
+      if (compo.intersects(atom1)) {
+        vs.or(compo);
+      }
+    }
+    if (!vs.equals(h.all)) {
+      int[] va = vs.toArray();
+      XBitSet[] components = new XBitSet[va.length];
+      for (int i = 0; i < va.length; i++) {
+        components[i] = (XBitSet) minor.components[va[i]].clone();
+      }
+      minor = new Minor(g, components);
+    }
     
     ArrayList<XBitSet> compoList = g.separatedComponents(atom);
     XBitSet internal = (XBitSet) atom.clone();
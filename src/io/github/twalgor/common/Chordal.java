@@ -49,7 +49,7 @@ public class Chordal {
     }
     
     maxCliques = new HashSet<>();
-    minSeps = new HashSet<>();
+    minSeps = new CompactXBitSetSet(g.n);
     int j = 0;
     XBitSet remaining = (XBitSet) g.all.clone();
     for (int i = g.n - 1; i>= 0; i--) {
@@ -0,0 +1,229 @@
+package io.github.twalgor.common;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A set of subsets of {@code {0, ..., n - 1}} stored compactly.
+ * The members are kept as fixed-width runs of long words in a single
+ * arena, in the order of insertion, and are located through an
+ * open-addressing table of indices into the arena with linear probing.
+ * A member costs {@code 8 * ceil(n / 64)} bytes in the arena and
+ * at most 8 bytes in the table, instead of a hash map node,
+ * a {@code BitSet} object and its word array.
+ * The iterator creates a fresh {@code XBitSet} for each member,
+ * so the members handed out may be modified freely.
+ * The members are hashed and compared bit by bit in place, without
+ * copying them into word arrays; {@code contains} does not modify the set.
+ * Removal is not supported.
+ */
+public class CompactXBitSetSet extends AbstractSet<XBitSet> {
+  int n;
+  int width;
+  long[] arena;
+  int size;
+  // 0 for an empty slot, 1 + the index of the member otherwise
+  int[] table;
+  int mask;
+
+  public CompactXBitSetSet(int n) {
+    this(n, 16);
+  }
+
+  /**
+   * Creates an empty set
+   * @param n the number of vertices: the members are subsets of
+   * {@code {0, ..., n - 1}}
+   * @param expected the expected number of members
+   */
+  public CompactXBitSetSet(int n, int expected) {
+    this.n = n;
+    width = Math.max(1, (n + 63) / 64);
+    int capacity = 16;
+    while (capacity < 2 * expected) {
+      capacity *= 2;
+    }
+    table = new int[capacity];
+    mask = capacity - 1;
+    arena = new long[Math.max(expected, 16) * width];
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean add(XBitSet s) {
+    if (s.length() > 64 * width) {
+      throw new IllegalArgumentException(s + " is not a subset of [0, " + n + ")");
+    }
+    int i = hash(s) & mask;
+    while (table[i] != 0) {
+      if (equalsAt(table[i] - 1, s)) {
+        return false;
+      }
+      i = (i + 1) & mask;
+    }
+    if ((size + 1) * width > arena.length) {
+      long[] larger = new long[2 * arena.length];
+      System.arraycopy(arena, 0, larger, 0, size * width);
+      arena = larger;
+    }
+    int base = size * width;
+    for (int v = s.nextSetBit(0); v >= 0; v = s.nextSetBit(v + 1)) {
+      arena[base + (v >>> 6)] |= 1L << v;
+    }
+    table[i] = ++size;
+    if (2 * size > table.length) {
+      rehash(2 * table.length);
+    }
+    return true;
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    if (!(o instanceof XBitSet)) {
+      return false;
+    }
+    XBitSet s = (XBitSet) o;
+    if (s.length() > 64 * width) {
+      return false;
+    }
+    int i = hash(s) & mask;
+    while (table[i] != 0) {
+      if (equalsAt(table[i] - 1, s)) {
+        return true;
+      }
+      i = (i + 1) & mask;
+    }
+    return false;
+  }
+
+  @Override
+  public void clear() {
+    size = 0;
+    Arrays.fill(table, 0);
+    Arrays.fill(arena, 0);
+  }
+
+  /**
+   * Returns the member of the given index in the order of insertion
+   * @param index the index
+   * @return a new {@code XBitSet} with the bits of the member
+   */
+  public XBitSet get(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException(index + " of " + size);
+    }
+    XBitSet s = new XBitSet(n);
+    int base = index * width;
+    for (int j = 0; j < width; j++) {
+      long w = arena[base + j];
+      while (w != 0) {
+        s.set(j * 64 + Long.numberOfTrailingZeros(w));
+        w &= w - 1;
+      }
+    }
+    return s;
+  }
+
+  @Override
+  public Iterator<XBitSet> iterator() {
+    return new Iterator<XBitSet>() {
+      int next = 0;
+
+      @Override
+      public boolean hasNext() {
+        return next < size;
+      }
+
+      @Override
+      public XBitSet next() {
+        if (next >= size) {
+          throw new NoSuchElementException();
+        }
+        return get(next++);
+      }
+    };
+  }
+
+  /**
+   * @return the approximate number of bytes held by the arena and the table
+   */
+  public long bytes() {
+    return 8L * arena.length + 4L * table.length;
+  }
+
+  // s must be a subset of {0, ..., 64 * width - 1}
+  boolean equalsAt(int index, XBitSet s) {
+    int base = index * width;
+    int count = 0;
+    for (int v = s.nextSetBit(0); v >= 0; v = s.nextSetBit(v + 1)) {
+      if ((arena[base + (v >>> 6)] & (1L << v)) == 0) {
+        return false;
+      }
+      count++;
+    }
+    for (int j = 0; j < width; j++) {
+      count -= Long.bitCount(arena[base + j]);
+    }
+    return count == 0;
+  }
+
+  static long mix(long h, long word) {
+    h = (h ^ word) * 0xbf58476d1ce4e5b9L;
+    return h ^ (h >>> 29);
+  }
+
+  static final long SEED = 0x9e3779b97f4a7c15L;
+
+  // trailing zero words are not hashed
+  static int hash(long[] words, int from, int length) {
+    long h = SEED;
+    for (int j = 0; j < length; j++) {
+      h = mix(h, words[from + j]);
+    }
+    return (int) (h ^ (h >>> 32));
+  }
+
+  /**
+   * The same hash as that of the words of the set, computed from the set
+   * bits without materializing the words
+   */
+  static int hash(XBitSet s) {
+    long h = SEED;
+    int j = 0;
+    long w = 0;
+    for (int v = s.nextSetBit(0); v >= 0; v = s.nextSetBit(v + 1)) {
+      for (int jv = v >>> 6; j < jv; j++) {
+        h = mix(h, w);
+        w = 0;
+      }
+      w |= 1L << v;
+    }
+    if (w != 0) {
+      h = mix(h, w);
+    }
+    return (int) (h ^ (h >>> 32));
+  }
+
+  void rehash(int capacity) {
+    table = new int[capacity];
+    mask = capacity - 1;
+    for (int index = 0; index < size; index++) {
+      int base = index * width;
+      int length = width;
+      while (length > 0 && arena[base + length - 1] == 0) {
+        length--;
+      }
+      int i = hash(arena, base, length) & mask;
+      while (table[i] != 0) {
+        i = (i + 1) & mask;
+      }
+      table[i] = index + 1;
+    }
+  }
+}
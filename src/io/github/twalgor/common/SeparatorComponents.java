@@ -0,0 +1,152 @@
+package io.github.twalgor.common;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.function.BiConsumer;
+
+/**
+ * Computes the components of a graph separated by each of a sequence of
+ * separators, sharing work between consecutive separators.
+ * A component {@code C} of {@code G - S'} for the previous separator
+ * {@code S'} is also a component of {@code G - S} for the current
+ * separator {@code S} if {@code C} is disjoint from {@code S} and
+ * {@code N(C)} is a subset of {@code S}, that is, if {@code C} together with
+ * {@code N(C)} avoids the symmetric difference of {@code S} and {@code S'}:
+ * such components are carried over and only the rest of the vertices
+ * are searched.
+ * Separators sharing many vertices should therefore be given in succession,
+ * which is achieved by {@code forEachFullComponent} through sorting them
+ * in the lexicographic order.
+ */
+public class SeparatorComponents {
+  Graph g;
+  XBitSet separator;
+  // the closed neighborhoods of the components of the current separator,
+  // i.e., each component together with its neighbor set
+  ArrayList<XBitSet> closures;
+  XBitSet toBeScanned;
+  XBitSet save;
+
+  long reused;
+  long searched;
+
+  public SeparatorComponents(Graph g) {
+    this.g = g;
+    closures = new ArrayList<>();
+    toBeScanned = new XBitSet(g.n);
+    save = new XBitSet(g.n);
+  }
+
+  /**
+   * Sets the current separator and computes the components separated by it
+   * @param sep the separator
+   */
+  public void setSeparator(XBitSet sep) {
+    XBitSet rest = g.all.subtract(sep);
+    int j = 0;
+    if (separator != null) {
+      // a component survives iff its closure avoids the symmetric difference
+      XBitSet changed = separator.subtract(sep);
+      changed.or(sep.subtract(separator));
+      for (XBitSet c: closures) {
+        if (!c.intersects(changed)) {
+          closures.set(j++, c);
+          rest.andNot(c);
+        }
+      }
+      reused += j;
+    }
+    while (closures.size() > j) {
+      closures.remove(closures.size() - 1);
+    }
+    separator = sep;
+
+    for (int v = rest.nextSetBit(0); v >= 0;
+        v = rest.nextSetBit(v + 1)) {
+      // the same search as in Graph.fullComponents, on reused work sets
+      XBitSet c = (XBitSet) g.neighborSet[v].clone();
+      c.set(v);
+      toBeScanned.clear();
+      toBeScanned.or(c);
+      toBeScanned.andNot(sep);
+      toBeScanned.clear(v);
+      while (!toBeScanned.isEmpty()) {
+        save.clear();
+        save.or(c);
+        for (int w = toBeScanned.nextSetBit(0); w >= 0;
+            w = toBeScanned.nextSetBit(w + 1)) {
+          c.or(g.neighborSet[w]);
+        }
+        toBeScanned.clear();
+        toBeScanned.or(c);
+        toBeScanned.andNot(save);
+        toBeScanned.andNot(sep);
+      }
+      closures.add(c);
+      rest.andNot(c);
+      searched++;
+    }
+  }
+
+  /**
+   * Passes the full components of the current separator to the sink
+   * @param sink the consumer of the pairs of the separator and
+   * its full components
+   */
+  public void fullComponents(BiConsumer<XBitSet, XBitSet> sink) {
+    for (XBitSet c: closures) {
+      if (separator.isSubset(c)) {
+        sink.accept(separator, c.subtract(separator));
+      }
+    }
+  }
+
+  /**
+   * Computes the full components of each of the given separators
+   * @param seps the separators
+   * @param sink the consumer of the pairs of a separator and
+   * each of its full components
+   */
+  public void forEachFullComponent(Collection<XBitSet> seps,
+      BiConsumer<XBitSet, XBitSet> sink) {
+    XBitSet[] sorted = seps.toArray(new XBitSet[seps.size()]);
+    Arrays.sort(sorted, lexicographic);
+    for (XBitSet sep: sorted) {
+      setSeparator(sep);
+      fullComponents(sink);
+    }
+  }
+
+  public long getReused() {
+    return reused;
+  }
+
+  public long getSearched() {
+    return searched;
+  }
+
+  /**
+   * The lexicographic order scanning the set bits only,
+   * consistent with {@code XBitSet.lexicographicComparator}
+   */
+  static final Comparator<XBitSet> lexicographic = (s1, s2) -> {
+    int i = s1.nextSetBit(0);
+    int j = s2.nextSetBit(0);
+    while (i == j && i >= 0) {
+      i = s1.nextSetBit(i + 1);
+      j = s2.nextSetBit(j + 1);
+    }
+    if (i == j) {
+      return 0;
+    }
+    if (i < 0) {
+      return -1;
+    }
+    if (j < 0) {
+      return 1;
+    }
+    return i < j ? -1 : 1;
+  };
+}
@@ -0,0 +1,96 @@
+package io.github.twalgor.common;
+
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A thread-safe set of subsets of {@code {0, ..., n - 1}}, striped over
+ * {@code CompactXBitSetSet}s each guarded by its own monitor.
+ * A member goes to the stripe selected by its hash code, so concurrent
+ * additions of different members rarely contend, while each member is
+ * still added exactly once.
+ * The iterator is meant for use after the concurrent additions are over.
+ */
+public class StripedXBitSetSet extends AbstractSet<XBitSet> {
+  CompactXBitSetSet[] stripes;
+  int mask;
+
+  /**
+   * Creates an empty set
+   * @param n the number of vertices
+   * @param nStripes the number of stripes, rounded up to a power of two
+   */
+  public StripedXBitSetSet(int n, int nStripes) {
+    int capacity = 1;
+    while (capacity < nStripes) {
+      capacity *= 2;
+    }
+    stripes = new CompactXBitSetSet[capacity];
+    for (int i = 0; i < capacity; i++) {
+      stripes[i] = new CompactXBitSetSet(n);
+    }
+    mask = capacity - 1;
+  }
+
+  CompactXBitSetSet stripeOf(Object o) {
+    // BitSet.hashCode reads the words in place
+    int h = o.hashCode();
+    return stripes[(h ^ (h >>> 16)) & mask];
+  }
+
+  @Override
+  public boolean add(XBitSet s) {
+    CompactXBitSetSet stripe = stripeOf(s);
+    synchronized (stripe) {
+      return stripe.add(s);
+    }
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    if (!(o instanceof XBitSet)) {
+      return false;
+    }
+    CompactXBitSetSet stripe = stripeOf(o);
+    synchronized (stripe) {
+      return stripe.contains(o);
+    }
+  }
+
+  @Override
+  public int size() {
+    int size = 0;
+    for (CompactXBitSetSet stripe: stripes) {
+      synchronized (stripe) {
+        size += stripe.size();
+      }
+    }
+    return size;
+  }
+
+  @Override
+  public Iterator<XBitSet> iterator() {
+    return new Iterator<XBitSet>() {
+      int stripe = 0;
+      int next = 0;
+
+      @Override
+      public boolean hasNext() {
+        while (stripe < stripes.length && next >= stripes[stripe].size()) {
+          stripe++;
+          next = 0;
+        }
+        return stripe < stripes.length;
+      }
+
+      @Override
+      public XBitSet next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        return stripes[stripe].get(next++);
+      }
+    };
+  }
+}
@@ -0,0 +1,175 @@
+package io.github.twalgor.common;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Weisfeiler-Leman color refinement of a graph.
+ * The colors are computed from the degrees by repeatedly
+ * hashing the multiset of the neighbor colors, so they do not depend
+ * on the vertex numbering: isomorphic graphs get the same {@code hash}
+ * and an isomorphism maps each vertex to a vertex of the same color.
+ * The converse does not hold in general, so a hash match must be
+ * confirmed by {@code isomorphismTo} before two graphs are identified.
+ */
+public class WLColoring {
+  public Graph g;
+  public long[] color;
+  public long hash;
+  int nColors;
+
+  public WLColoring(Graph g) {
+    this.g = g;
+    color = new long[g.n];
+    for (int v = 0; v < g.n; v++) {
+      color[v] = mix(g.neighborSet[v].cardinality());
+    }
+    nColors = countColors(color);
+    for (int round = 0; round < g.n; round++) {
+      long[] next = new long[g.n];
+      for (int v = 0; v < g.n; v++) {
+        long s = 0;
+        XBitSet nb = g.neighborSet[v];
+        for (int w = nb.nextSetBit(0); w >= 0; w = nb.nextSetBit(w + 1)) {
+          s += mix(color[w]);
+        }
+        next[v] = mix(color[v] ^ mix(s + 0x9e3779b97f4a7c15L));
+      }
+      int nNext = countColors(next);
+      color = next;
+      if (nNext == nColors) {
+        break;
+      }
+      nColors = nNext;
+    }
+
+    int[] degree = new int[g.n];
+    for (int v = 0; v < g.n; v++) {
+      degree[v] = g.neighborSet[v].cardinality();
+    }
+    Arrays.sort(degree);
+    long[] sorted = color.clone();
+    Arrays.sort(sorted);
+    hash = mix(g.n);
+    for (int d: degree) {
+      hash = mix(hash ^ d);
+    }
+    for (long c: sorted) {
+      hash = mix(hash + c);
+    }
+  }
+
+  /**
+   * Finds an isomorphism from the graph of this coloring to that of
+   * the other coloring, mapping each vertex to a vertex of the same color.
+   * @param other the coloring of the other graph
+   * @param budget the maximum number of search nodes to be expanded
+   * @return an array {@code map} such that {@code v} is mapped to
+   * {@code map[v]}; {@code null} if no isomorphism exists or
+   * none is found within the budget
+   */
+  public int[] isomorphismTo(WLColoring other, int budget) {
+    if (g.n != other.g.n || hash != other.hash) {
+      return null;
+    }
+    int n = g.n;
+    Map<Long, Integer> classSize = new HashMap<>();
+    for (int v = 0; v < n; v++) {
+      Integer s = classSize.get(color[v]);
+      classSize.put(color[v], s == null ? 1 : s + 1);
+    }
+    Integer[] ord = new Integer[n];
+    for (int v = 0; v < n; v++) {
+      ord[v] = v;
+    }
+    Arrays.sort(ord, (u, v) -> {
+      int c = classSize.get(color[u]) - classSize.get(color[v]);
+      if (c != 0) {
+        return c;
+      }
+      c = Long.compare(color[u], color[v]);
+      if (c != 0) {
+        return c;
+      }
+      return u - v;
+    });
+
+    int[] map = new int[n];
+    Arrays.fill(map, -1);
+    Search search = new Search(other, ord, map, budget);
+    if (search.extend(0)) {
+      return map;
+    }
+    return null;
+  }
+
+  class Search {
+    WLColoring other;
+    Integer[] ord;
+    int[] map;
+    int budget;
+    XBitSet mapped;
+    XBitSet image;
+
+    Search(WLColoring other, Integer[] ord, int[] map, int budget) {
+      this.other = other;
+      this.ord = ord;
+      this.map = map;
+      this.budget = budget;
+      mapped = new XBitSet(g.n);
+      image = new XBitSet(g.n);
+    }
+
+    boolean extend(int i) {
+      if (i == ord.length) {
+        return true;
+      }
+      if (budget-- <= 0) {
+        return false;
+      }
+      int v = ord[i];
+      XBitSet nb = g.neighborSet[v].intersectWith(mapped).convert(map);
+      for (int w = 0; w < g.n; w++) {
+        if (image.get(w) || other.color[w] != color[v]) {
+          continue;
+        }
+        if (!other.g.neighborSet[w].intersectWith(image).equals(nb)) {
+          continue;
+        }
+        map[v] = w;
+        mapped.set(v);
+        image.set(w);
+        if (extend(i + 1)) {
+          return true;
+        }
+        map[v] = -1;
+        mapped.clear(v);
+        image.clear(w);
+        if (budget <= 0) {
+          return false;
+        }
+      }
+      return false;
+    }
+  }
+
+  static int countColors(long[] color) {
+    long[] sorted = color.clone();
+    Arrays.sort(sorted);
+    int count = 0;
+    for (int i = 0; i < sorted.length; i++) {
+      if (i == 0 || sorted[i] != sorted[i - 1]) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  static long mix(long x) {
+    x += 0x9e3779b97f4a7c15L;
+    x = (x ^ (x >>> 30)) * 0xbf58476d1ce4e5b9L;
+    x = (x ^ (x >>> 27)) * 0x94d049bb133111ebL;
+    return x ^ (x >>> 31);
+  }
+}
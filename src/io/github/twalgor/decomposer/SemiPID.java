@@ -7,13 +7,22 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 
 import io.github.twalgor.common.Graph;
 import io.github.twalgor.common.LocalGraph;
+import io.github.twalgor.common.SeparatorComponents;
 import io.github.twalgor.common.Subgraph;
 import io.github.twalgor.common.TreeDecomposition;
 import io.github.twalgor.common.XBitSet;
 import io.github.twalgor.minseps.MinSepsGenerator;
+import io.github.twalgor.minseps.MinSepsStore;
+import io.github.twalgor.minseps.MinSepsStream;
 import io.github.twalgor.sieve.SubblockSieve;
 
 public class SemiPID {
@@ -27,6 +36,15 @@ public class SemiPID {
   //  static final boolean TRACE_ROOT = true;
   static final boolean TRACE_ROOT = false;
 
+  // the number of threads for the root search; 1 for the sequential search
+  public static int ROOT_SEARCH_THREADS = 1;
+  static final int PARALLEL_ROOT_SEARCH_MIN_N = 60;
+  static ExecutorService rootSearchPool;
+
+  // if true, dp() consumes the minimal separators while they are generated
+  public static boolean STREAMING = false;
+  static final int STREAM_CAPACITY = 1024;
+
   Graph g;
   String graphName;
   int k;
@@ -47,25 +65,46 @@ public class SemiPID {
   int[] convForRoot;
   int[] invForRoot;
 
+  SemiPIDStats stats = new SemiPIDStats();
+  int depth;
+
   public static TreeDecomposition decompose(Graph g) {
-    for (int k = g.minDegree(); k < g.n; k++) {
+    TWCache cache = TWCache.getInstance();
+    int k0 = Math.max(g.minDegree(), cache.lowerBound(g));
+    for (int k = k0; k < g.n; k++) {
       SemiPID spid = new SemiPID(g, k, false);
       TreeDecomposition td = spid.decompose();
       if (td != null) {
+        cache.putTreewidth(g, td.width);
         return td;
       }
     }
     assert false: g.n + ", " + g.numberOfEdges();
     return null;
   }
+
+  /**
+   * Computes the treewidth of the given graph, consulting
+   * the process-wide {@code TWCache} first
+   * @param g graph
+   * @return the treewidth of {@code g}
+   */
+  public static int treewidth(Graph g) {
+    TWCache cache = TWCache.getInstance();
+    int tw = cache.treewidth(g);
+    if (tw >= 0) {
+      return tw;
+    }
+    return decompose(g).width;
+  }
   
   public SemiPID(Graph g, int k, boolean pmcOnly) {
     this.g = g;
     this.k = k;
     this.pmcOnly = pmcOnly;
-    MinSepsGenerator msg = new MinSepsGenerator(g, k);
-    msg.generate();
-    minSeps = msg.minSeps;
+    if (!STREAMING) {
+      generateMinSeps();
+    }
   }
    
   public SemiPID(Graph g, int k, Set<XBitSet> minSeps, boolean pmcOnly) {
@@ -75,6 +114,27 @@ public class SemiPID {
     this.pmcOnly = pmcOnly;
   }
   
+  void generateMinSeps() {
+    long t = System.nanoTime();
+    MinSepsStore store = MinSepsStore.getDefault();
+    if (store != null && g.n >= MinSepsStore.MIN_N) {
+      minSeps = store.load(g, k);
+    }
+    if (minSeps == null) {
+      MinSepsGenerator msg = new MinSepsGenerator(g, k);
+      msg.generate();
+      minSeps = msg.minSeps;
+      if (store != null && g.n >= MinSepsStore.MIN_N) {
+        store.save(g, k, minSeps);
+      }
+    }
+    stats.minSepsTime += System.nanoTime() - t;
+  }
+
+  public SemiPIDStats getStats() {
+    return stats;
+  }
+
   public TreeDecomposition decompose() {
     if (k >= g.n - 1) {
       TreeDecomposition td = new TreeDecomposition(0, g.n - 1, g);
@@ -93,6 +153,7 @@ public class SemiPID {
         Subgraph sub = new Subgraph(g, compo);
         SemiPID spid = new SemiPID(sub.h, k, null, pmcOnly);
         TreeDecomposition td1 = spid.decompose();
+        stats.add(spid.stats);
         if (td1 == null) {
           return null;
         }
@@ -117,10 +178,8 @@ public class SemiPID {
       }
       return td;
     }
-    if (minSeps == null) {
-      MinSepsGenerator msg = new MinSepsGenerator(g, k);
-      msg.generate();
-      minSeps = msg.minSeps;
+    if (minSeps == null && !STREAMING) {
+      generateMinSeps();
     }
     
     dp();
@@ -130,8 +189,10 @@ public class SemiPID {
       return null;
     }
 
+    long t = System.nanoTime();
     TreeDecomposition td = new TreeDecomposition(0, k, g);
     fillTD(root, g.all, td);
+    stats.fillTDTime += System.nanoTime() - t;
     return td;
   }
   
@@ -144,17 +205,17 @@ public class SemiPID {
       for (XBitSet compo: components) {
         Subgraph sub = new Subgraph(g, compo);
         SemiPID spid = new SemiPID(sub.h, k, null, pmcOnly);
-        if (!spid.isFeasible()) {
+        boolean feasible = spid.isFeasible();
+        stats.add(spid.stats);
+        if (!feasible) {
           return false;
         }
       }
       return true;
     }
     
-    if (minSeps == null) {
-      MinSepsGenerator msg = new MinSepsGenerator(g, k);
-      msg.generate();
-      minSeps = msg.minSeps;
+    if (minSeps == null && !STREAMING) {
+      generateMinSeps();
     }
     
     dp();
@@ -163,25 +224,45 @@ public class SemiPID {
   
 
   public void dp() {
+    long t = System.nanoTime();
     minSeparateds = new ArrayList<>();
     
-    for (XBitSet sep: minSeps) {
-      ArrayList<XBitSet> fulls = g.fullComponents(sep);
-      for (XBitSet full: fulls) {
-        if (isSmall(full)) {
-          minSeparateds.add(full);
+    BiConsumer<XBitSet, XBitSet> collect = (sep, full) -> {
+      // sep is the neighbor set of full
+      if (2 * full.cardinality() <= g.n - sep.cardinality()) {
+        minSeparateds.add(full);
+      }
+    };
+    SeparatorComponents sc = new SeparatorComponents(g);
+    if (minSeps != null) {
+      stats.minSeps += minSeps.size();
+      sc.forEachFullComponent(minSeps, collect);
+    }
+    else {
+      // the separators arrive in no particular order: consecutive ones
+      // share less, so fewer closures of the previous separator survive
+      MinSepsStream stream = new MinSepsStream(g, k, STREAM_CAPACITY);
+      stream.start();
+      try {
+        for (XBitSet sep = stream.take(); sep != null; sep = stream.take()) {
+          stats.minSeps++;
+          sc.setSeparator(sep);
+          sc.fullComponents(collect);
         }
+      } finally {
+        stream.cancel();
       }
+      stats.minSepsTime += stream.getGenerationTime();
     }
 
     minSeparateds.sort(XBitSet.cardinalityComparator);
+    stats.minSeparateds += minSeparateds.size();
     
     feasiblesMap = new HashMap<>();
 
+    // sieves are created on the first insertion: most vertices are never
+    // the smallest vertex of a feasible block
     sieve = new SubblockSieve[g.n];
-    for (int v = 0; v < g.n; v++) {
-      sieve[v] = new SubblockSieve(g, k + 1);
-    }
 
     for (XBitSet component: minSeparateds) {
       XBitSet sep = g.neighborSet(component);
@@ -192,12 +273,21 @@ public class SemiPID {
                 "block: " + component);
         }
         feasiblesMap.put(component, cap);
-        sieve[component.nextSetBit(0)].add(component, sep);
+        addToSieve(sieve, component.nextSetBit(0), component, sep);
       }
     }
+    stats.feasibles += feasiblesMap.size();
+    stats.dpTime += System.nanoTime() - t;
   }
   
   XBitSet findRoot() {
+    long t = System.nanoTime();
+    XBitSet root = searchRoot();
+    stats.findRootTime += System.nanoTime() - t;
+    return root;
+  }
+
+  XBitSet searchRoot() {
     for (XBitSet cand: feasiblesMap.keySet()) {
       XBitSet candSep = g.neighborSet(cand);
       if (isAllFeasible(candSep)) {
@@ -242,108 +332,138 @@ public class SemiPID {
       }
     }
 
+    // the sieve for v built in dp() serves as is if the feasibles 
+    // with v as the smallest vertex are the same under both orderings
     sieveForRoot = new SubblockSieve[g.n];
+    boolean[] reordered = new boolean[g.n];
+    for (XBitSet feasible: feasiblesMap.keySet()) {
+      int v0 = smallestForRoot(feasible);
+      int v1 = feasible.nextSetBit(0);
+      if (v0 != v1) {
+        reordered[v0] = true;
+        reordered[v1] = true;
+      }
+    }
     for (int v = 0; v < g.n; v++) {
-      sieveForRoot[v] = new SubblockSieve(g, k + 1);
+      if (!reordered[v]) {
+        sieveForRoot[v] = sieve[v];
+      }
     }
     for (XBitSet feasible: feasiblesMap.keySet()) {
       int v0 = smallestForRoot(feasible);
-      XBitSet sep = g.neighborSet(feasible);
-      sieveForRoot[v0].add(feasible, g.neighborSet(feasible));
+      if (reordered[v0]) {
+        addToSieve(sieveForRoot, v0, feasible, g.neighborSet(feasible));
+      }
     }
 
     XBitSet forced = new XBitSet(g.n);
+    ArrayList<RootSearch> searches = new ArrayList<>();
     for (int i = 0; i < k + 1; i++) {
       int v0 = ord[i];
-      ArrayList<XBitSet> candidates = sieveForRoot[v0].get(g.all, new XBitSet());
+      ArrayList<XBitSet> candidates = sieved(sieveForRoot[v0], g.all, new XBitSet());
+      stats.sieveCandidates += candidates.size();
+      XBitSet forcedNow = (XBitSet) forced.clone();
       for (XBitSet cand: candidates) {
-        if (TRACE_ROOT) {
-          System.out.println("trying candidate " + cand);
-        }
-        if (cand.equals(firstCompoOfRoot)) {
-//        System.out.println("candidate " + cand + " is the first compo of known root");
-        }
-
-        XBitSet candSep = g.neighborSet(cand);
-        if (forced.isSubset(candSep)) {
-          ArrayList<XBitSet> fulls = new ArrayList<>();
-          ArrayList<XBitSet> nonFulls = new ArrayList<>();
-          g.listComponents(g.all.subtract(cand.unionWith(candSep)), candSep, fulls, nonFulls);
-          assert !fulls.isEmpty();
-          XBitSet largest = null;
-          for (XBitSet full: fulls) {
-            if (largest == null || full.cardinality() > largest.cardinality()) {
-              largest = full;
-            }
-          }
-          if (TRACE_ROOT || cand.equals(firstCompoOfRoot)) {
-            System.out.println(indent(largest) + "largest the other " + largest);
-          }
-
-          boolean smallInfeasible = false;
-          for (XBitSet full: fulls) {
-            if (full != largest &&
-                feasiblesMap.get(full) == null) {
-              smallInfeasible = true;
-            }
-          }
-          for (XBitSet compo: nonFulls) {
-            if (feasiblesMap.get(compo) == null) {
-              smallInfeasible = true;
-            }
-          }
-          if (TRACE_ROOT || cand.equals(firstCompoOfRoot)) {
-            System.out.println(indent(largest) + "smallInfeasible = "+ smallInfeasible);
-          }
+        searches.add(new RootSearch(searches.size(), cand, forcedNow));
+      }
+      forced.set(v0);
+    }
 
-          if (smallInfeasible) {
-            continue;
-          }
-          XBitSet cap = null;
-          if (cand.equals(firstCompoOfRoot)) {
-            cap = findCapForRoot(largest, candSep, rootKnown);
-          }
-          else {
-            cap = findCapForRoot(largest, candSep, null);
-          }
-          if (cap != null) {
-            return cap;
-          }          
-        }
-        else {
-          XBitSet union = forced.unionWith(candSep);
-          if (union.cardinality() > k + 1) {
-            continue;
-          }
-          XBitSet rest = g.all.subtract(union).subtract(cand);
-          if (TRACE_ROOT || cand.equals(firstCompoOfRoot)) {
-            System.out.println(indent(g.all.subtract(candSep)) + "union = " + union);
-            System.out.println(indent(g.all.subtract(candSep)) + "known root = " + rootKnown);
-          }
-          XBitSet cap = null;
-          if (rootKnown != null && union.isSubset(rootKnown)) {
-            cap = tryUnionForRoot(rest, union, rootKnown);
-          }
-          else {
-            cap = tryUnionForRoot(rest, union, null);
-          }
-          if (cap != null) {
-            return cap;
-          }
+    XBitSet cap = null;
+    if (ROOT_SEARCH_THREADS > 1 && g.n >= PARALLEL_ROOT_SEARCH_MIN_N &&
+        searches.size() > 1) {
+      cap = searchRootInParallel(searches);
+    }
+    else {
+      for (RootSearch rs: searches) {
+        cap = rs.search();
+        stats.add(rs.stats);
+        if (cap != null) {
+          break;
         }
       }
-      forced.set(v0);
-      if (i == k) {
-        if (g.fullComponents(forced).isEmpty() &&
-            g.isCliquish(forced) &&
-            isAllFeasible(forced)) {
-          return forced;
+    }
+    if (cap != null) {
+      return cap;
+    }
+    // forced now consists of the first k + 1 vertices in the order
+    if (g.fullComponents(forced).isEmpty() &&
+        g.isCliquish(forced) &&
+        isAllFeasible(forced)) {
+      return forced;
+    }
+    return null;
+  }
+
+  /**
+   * Runs the root searches on the shared pool. A search is abandoned as soon as
+   * one with a smaller index has succeeded, and the cap of the successful
+   * search with the smallest index is returned, which is the cap
+   * the sequential search would return.
+   */
+  XBitSet searchRootInParallel(ArrayList<RootSearch> searches) {
+    AtomicInteger found = new AtomicInteger(searches.size());
+    XBitSet[] caps = new XBitSet[searches.size()];
+    ArrayList<Future<?>> futures = new ArrayList<>();
+    ExecutorService pool = rootSearchPool();
+    for (RootSearch rs: searches) {
+      rs.found = found;
+      futures.add(pool.submit(() -> {
+        if (rs.index > found.get()) {
+          return;
         }
+        XBitSet cap = rs.search();
+        if (cap != null) {
+          caps[rs.index] = cap;
+          found.accumulateAndGet(rs.index, Math::min);
+        }
+      }));
+    }
+    for (Future<?> future: futures) {
+      try {
+        future.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException(e);
+      } catch (ExecutionException e) {
+        throw new RuntimeException(e.getCause());
       }
     }
+    for (RootSearch rs: searches) {
+      stats.add(rs.stats);
+    }
+    if (found.get() < searches.size()) {
+      return caps[found.get()];
+    }
     return null;
   }
 
+  static synchronized ExecutorService rootSearchPool() {
+    if (rootSearchPool == null) {
+      rootSearchPool = Executors.newFixedThreadPool(ROOT_SEARCH_THREADS, r -> {
+        Thread t = new Thread(r, "SemiPID-root");
+        t.setDaemon(true);
+        return t;
+      });
+    }
+    return rootSearchPool;
+  }
+
+  void addToSieve(SubblockSieve[] sa, int v, XBitSet component, XBitSet sep) {
+    if (sa[v] == null) {
+      sa[v] = new SubblockSieve(g, k + 1);
+      stats.sieves++;
+    }
+    sa[v].add(component, sep);
+  }
+
+  ArrayList<XBitSet> sieved(SubblockSieve s, XBitSet scope, XBitSet sep) {
+    if (s == null) {
+      return new ArrayList<>();
+    }
+    return s.get(scope, sep);
+  }
+
   private int smallestForRoot(XBitSet compo) {
     return invForRoot[compo.convert(convForRoot).nextSetBit(0)];
   }
@@ -373,6 +493,16 @@ public class SemiPID {
   }
 
   XBitSet findCap(XBitSet component, XBitSet sep, XBitSet knownCap) {
+    stats.findCapCalls++;
+    if (++depth > stats.maxDepth) {
+      stats.maxDepth = depth;
+    }
+    XBitSet cap = searchCap(component, sep, knownCap);
+    depth--;
+    return cap;
+  }
+
+  XBitSet searchCap(XBitSet component, XBitSet sep, XBitSet knownCap) {
     if (TRACE || knownCap != null && sep.isSubset(knownCap)) {
       System.out.println(indent(component) + "findCap " + component + ", " + sep);
       if (knownCap != null) {
@@ -385,7 +515,8 @@ public class SemiPID {
     }
     int v0 = component.nextSetBit(0);
 
-    ArrayList<XBitSet> candidates = sieve[v0].get(component, sep);
+    ArrayList<XBitSet> candidates = sieved(sieve[v0], component, sep);
+    stats.sieveCandidates += candidates.size();
     for (XBitSet cand: candidates) {
       XBitSet candSep = g.neighborSet(cand);
       if (TRACE || knownCap != null && sep.isSubset(knownCap)) {
@@ -429,6 +560,7 @@ public class SemiPID {
   }
 
   XBitSet tryUnion(XBitSet scope, XBitSet union, XBitSet knownCap) {
+    stats.tryUnionCalls++;
     if (TRACE || knownCap != null && union.isSubset(knownCap)) {
       System.out.println(indent(scope) + "tryUnion0 " + 
           scope + ", " + union);
@@ -484,129 +616,235 @@ public class SemiPID {
     return findCap(full, union, knownCap);
   }
 
-  XBitSet findCapForRoot(XBitSet component, XBitSet sep, XBitSet capKnown) {
-    boolean toTrace = false;
-    if (capKnown != null && sep.isSubset(capKnown) &&
-        capKnown.isSubset(component.unionWith(sep))) {
-      System.out.println(indent(component) + 
-          "compo:" + component + " and sep:"  + sep +
-          " consistent with known cap " + capKnown);
-      toTrace = true;
-    }
-    if (component.cardinality() + sep.cardinality() <= k + 1 &&
-        g.isClique(component)) {
-      return component.unionWith(sep);
+  /**
+   * The search for a root cap starting from a single candidate component.
+   * Each search keeps its own stats and depth so that searches can
+   * run concurrently; the stats are added to those of the SemiPID
+   * when the searches are done.
+   */
+  class RootSearch {
+    int index;
+    XBitSet cand;
+    XBitSet forced;
+    AtomicInteger found;
+    SemiPIDStats stats = new SemiPIDStats();
+    int depth;
+
+    RootSearch(int index, XBitSet cand, XBitSet forced) {
+      this.index = index;
+      this.cand = cand;
+      this.forced = forced;
     }
-    int v0 = smallestForRoot(component);
 
-    ArrayList<XBitSet> candidates = sieveForRoot[v0].get(component, sep);
-    if (TRACE_ROOT || toTrace) {
-      System.out.println(indent(component) + candidates.size() + " candidates");
+    boolean abandoned() {
+      return found != null && found.get() < index;
     }
 
-    for (XBitSet cand: candidates) {
+    XBitSet search() {
+      if (TRACE_ROOT) {
+        System.out.println("trying candidate " + cand);
+      }
       XBitSet candSep = g.neighborSet(cand);
-      if (TRACE_ROOT || toTrace) {
-        System.out.println(indent(component) + "cand = " + cand);
-        System.out.println(indent(component) + "candSep = " + candSep);
+      if (forced.isSubset(candSep)) {
+        ArrayList<XBitSet> fulls = new ArrayList<>();
+        ArrayList<XBitSet> nonFulls = new ArrayList<>();
+        g.listComponents(g.all.subtract(cand.unionWith(candSep)), candSep, fulls, nonFulls);
+        assert !fulls.isEmpty();
+        XBitSet largest = null;
+        for (XBitSet full: fulls) {
+          if (largest == null || full.cardinality() > largest.cardinality()) {
+            largest = full;
+          }
+        }
+        if (TRACE_ROOT || cand.equals(firstCompoOfRoot)) {
+          System.out.println(indent(largest) + "largest the other " + largest);
+        }
+
+        boolean smallInfeasible = false;
+        for (XBitSet full: fulls) {
+          if (full != largest &&
+              feasiblesMap.get(full) == null) {
+            smallInfeasible = true;
+          }
+        }
+        for (XBitSet compo: nonFulls) {
+          if (feasiblesMap.get(compo) == null) {
+            smallInfeasible = true;
+          }
+        }
+        if (TRACE_ROOT || cand.equals(firstCompoOfRoot)) {
+          System.out.println(indent(largest) + "smallInfeasible = "+ smallInfeasible);
+        }
+
+        if (smallInfeasible) {
+          return null;
+        }
+        if (cand.equals(firstCompoOfRoot)) {
+          return findCapForRoot(largest, candSep, rootKnown);
+        }
+        else {
+          return findCapForRoot(largest, candSep, null);
+        }
       }
-      XBitSet union = sep.unionWith(candSep);
-      assert !union.equals(sep);
-      assert union.cardinality() <= k + 1;
-      XBitSet cap = tryUnionForRoot(component.subtract(cand).subtract(union), union, capKnown);
-      if (cap != null) {
-        return cap;
+      else {
+        XBitSet union = forced.unionWith(candSep);
+        if (union.cardinality() > k + 1) {
+          return null;
+        }
+        XBitSet rest = g.all.subtract(union).subtract(cand);
+        if (TRACE_ROOT || cand.equals(firstCompoOfRoot)) {
+          System.out.println(indent(g.all.subtract(candSep)) + "union = " + union);
+          System.out.println(indent(g.all.subtract(candSep)) + "known root = " + rootKnown);
+        }
+        if (rootKnown != null && union.isSubset(rootKnown)) {
+          return tryUnionForRoot(rest, union, rootKnown);
+        }
+        else {
+          return tryUnionForRoot(rest, union, null);
+        }
       }
     }
-    if (TRACE_ROOT || toTrace) {
-      System.out.println(indent(component) + v0 + " should be in tha bag");
-    }
-    return tryUnionForRoot(component.removeBit(v0), sep.addBit(v0), capKnown);
-  }
-  
-  XBitSet tryUnionForRoot(XBitSet scope, XBitSet union, XBitSet capKnown) {
-    boolean toTrace = false;
-    if (capKnown != null && union.isSubset(capKnown) &&
-        capKnown.isSubset(scope.unionWith(union))) {
-      System.out.println(indent(scope) + "tryUnionForRoot" + 
-          ", scope:" + scope + " and union:"  + union +
-          " consistent with known cap " + capKnown);
-      toTrace = true;
-    }
-
-    if (TRACE_ROOT) {
-      System.out.println(indent(scope) + "tryUnionForRoot " + 
-          scope + ", " + union);
-    }
-    ArrayList<XBitSet> fulls = new ArrayList<>();
-    ArrayList<XBitSet> nonFulls = new ArrayList<>();
-    g.listComponents(scope, union, fulls, nonFulls);
-    if (TRACE_ROOT) {
-      System.out.println(indent(scope) + fulls.size() + " fulls and " + 
-          nonFulls.size() + " non fulls");
+
+    XBitSet findCapForRoot(XBitSet component, XBitSet sep, XBitSet capKnown) {
+      if (abandoned()) {
+        return null;
+      }
+      stats.findCapForRootCalls++;
+      if (++depth > stats.maxDepth) {
+        stats.maxDepth = depth;
+      }
+      XBitSet cap = searchCapForRoot(component, sep, capKnown);
+      depth--;
+      return cap;
     }
-    for (XBitSet compo: nonFulls) {
-      if (TRACE_ROOT) {
-        System.out.println(indent(compo) + compo + ": " + feasiblesMap.get(compo));
+
+    XBitSet searchCapForRoot(XBitSet component, XBitSet sep, XBitSet capKnown) {
+      boolean toTrace = false;
+      if (capKnown != null && sep.isSubset(capKnown) &&
+          capKnown.isSubset(component.unionWith(sep))) {
+        System.out.println(indent(component) + 
+            "compo:" + component + " and sep:"  + sep +
+            " consistent with known cap " + capKnown);
+        toTrace = true;
+      }
+      if (component.cardinality() + sep.cardinality() <= k + 1 &&
+          g.isClique(component)) {
+        return component.unionWith(sep);
+      }
+      int v0 = smallestForRoot(component);
+
+      ArrayList<XBitSet> candidates = sieved(sieveForRoot[v0], component, sep);
+      stats.sieveCandidates += candidates.size();
+      if (TRACE_ROOT || toTrace) {
+        System.out.println(indent(component) + candidates.size() + " candidates");
       }
-      if (feasiblesMap.get(compo) == null) {
+
+      for (XBitSet cand: candidates) {
+        XBitSet candSep = g.neighborSet(cand);
         if (TRACE_ROOT || toTrace) {
-          System.out.println(indent(scope) + "infeasible, returninig null, compo = " + compo);
+          System.out.println(indent(component) + "cand = " + cand);
+          System.out.println(indent(component) + "candSep = " + candSep);
+        }
+        XBitSet union = sep.unionWith(candSep);
+        assert !union.equals(sep);
+        assert union.cardinality() <= k + 1;
+        XBitSet cap = tryUnionForRoot(component.subtract(cand).subtract(union), union, capKnown);
+        if (cap != null) {
+          return cap;
         }
-        return null;
       }
-    }
-    if (fulls.isEmpty()) {
       if (TRACE_ROOT || toTrace) {
-        System.out.println(indent(scope) + "no fulls, returninig " + 
-            union);
+        System.out.println(indent(component) + v0 + " should be in tha bag");
       }
-      if (!pmcOnly || g.isCliquish(union)) {
-        return union;
+      return tryUnionForRoot(component.removeBit(v0), sep.addBit(v0), capKnown);
+    }
+
+    XBitSet tryUnionForRoot(XBitSet scope, XBitSet union, XBitSet capKnown) {
+      stats.tryUnionForRootCalls++;
+      boolean toTrace = false;
+      if (capKnown != null && union.isSubset(capKnown) &&
+          capKnown.isSubset(scope.unionWith(union))) {
+        System.out.println(indent(scope) + "tryUnionForRoot" + 
+            ", scope:" + scope + " and union:"  + union +
+            " consistent with known cap " + capKnown);
+        toTrace = true;
       }
-      else {
-        return null;
+
+      if (TRACE_ROOT) {
+        System.out.println(indent(scope) + "tryUnionForRoot " + 
+            scope + ", " + union);
       }
-    }
-    XBitSet fullToExtend = null;
-    if (fulls.size() == 1) {
-      fullToExtend = fulls.get(0);
-    }
-    else {
-      for (XBitSet full: fulls) {
-        if (feasiblesMap.get(full) != null) {
-          continue;
+      ArrayList<XBitSet> fulls = new ArrayList<>();
+      ArrayList<XBitSet> nonFulls = new ArrayList<>();
+      g.listComponents(scope, union, fulls, nonFulls);
+      if (TRACE_ROOT) {
+        System.out.println(indent(scope) + fulls.size() + " fulls and " + 
+            nonFulls.size() + " non fulls");
+      }
+      for (XBitSet compo: nonFulls) {
+        if (TRACE_ROOT) {
+          System.out.println(indent(compo) + compo + ": " + feasiblesMap.get(compo));
         }
-        if (isSmall(full)) {
+        if (feasiblesMap.get(compo) == null) {
           if (TRACE_ROOT || toTrace) {
-            System.out.println(indent(scope) + 
-                "infeasible small full that is minimally separated");
-            System.out.println(" returninig null");
+            System.out.println(indent(scope) + "infeasible, returninig null, compo = " + compo);
           }
           return null;
         }
+      }
+      if (fulls.isEmpty()) {
+        if (TRACE_ROOT || toTrace) {
+          System.out.println(indent(scope) + "no fulls, returninig " + 
+              union);
+        }
+        if (!pmcOnly || g.isCliquish(union)) {
+          return union;
+        }
         else {
-          assert fullToExtend == null;
-          fullToExtend = full;
+          return null;
         }
       }
-      if (fullToExtend == null) {
+      XBitSet fullToExtend = null;
+      if (fulls.size() == 1) {
+        fullToExtend = fulls.get(0);
+      }
+      else {
+        for (XBitSet full: fulls) {
+          if (feasiblesMap.get(full) != null) {
+            continue;
+          }
+          if (isSmall(full)) {
+            if (TRACE_ROOT || toTrace) {
+              System.out.println(indent(scope) + 
+                  "infeasible small full that is minimally separated");
+              System.out.println(" returninig null");
+            }
+            return null;
+          }
+          else {
+            assert fullToExtend == null;
+            fullToExtend = full;
+          }
+        }
+        if (fullToExtend == null) {
+          if (TRACE_ROOT || toTrace) {
+            System.out.println(indent(scope) + 
+                "at least two fulls, all feasible, returninig " + union);
+          }
+          return union;
+        }
+      }
+      if (union.cardinality() == k + 1) {
         if (TRACE_ROOT || toTrace) {
           System.out.println(indent(scope) + 
-              "at least two fulls, all feasible, returninig " + union);
+              "no room for extending, returninig null");
         }
-        return union;
-      }
-    }
-    if (union.cardinality() == k + 1) {
-      if (TRACE_ROOT || toTrace) {
-        System.out.println(indent(scope) + 
-            "no room for extending, returninig null");
+        return null;
       }
-      return null;
+      return findCapForRoot(fullToExtend, union, capKnown);
     }
-    return findCapForRoot(fullToExtend, union, capKnown);
   }
+
   
   int fillTD(XBitSet bag, XBitSet component, TreeDecomposition td) {
     if (CONSTRUCT_TD) {
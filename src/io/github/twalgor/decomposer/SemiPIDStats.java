@@ -0,0 +1,68 @@
+package io.github.twalgor.decomposer;
+
+/**
+ * Search-effort counters and phase timings of a {@code SemiPID} run.
+ * The counters are plain fields updated on the hot paths, so that they can be
+ * kept always on; the times are in nanoseconds.
+ */
+public class SemiPIDStats {
+  public long minSeps;
+  public long minSeparateds;
+  public long feasibles;
+  public long sieves;
+  public long sieveCandidates;
+  public long findCapCalls;
+  public long tryUnionCalls;
+  public long findCapForRootCalls;
+  public long tryUnionForRootCalls;
+  public int maxDepth;
+
+  public long minSepsTime;
+  public long dpTime;
+  public long findRootTime;
+  public long fillTDTime;
+
+  /**
+   * Adds the counts and times of another run, typically of a
+   * connected component, to this target
+   * @param s the stats to be added
+   */
+  public void add(SemiPIDStats s) {
+    minSeps += s.minSeps;
+    minSeparateds += s.minSeparateds;
+    feasibles += s.feasibles;
+    sieves += s.sieves;
+    sieveCandidates += s.sieveCandidates;
+    findCapCalls += s.findCapCalls;
+    tryUnionCalls += s.tryUnionCalls;
+    findCapForRootCalls += s.findCapForRootCalls;
+    tryUnionForRootCalls += s.tryUnionForRootCalls;
+    if (s.maxDepth > maxDepth) {
+      maxDepth = s.maxDepth;
+    }
+    minSepsTime += s.minSepsTime;
+    dpTime += s.dpTime;
+    findRootTime += s.findRootTime;
+    fillTDTime += s.fillTDTime;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append("minSeps " + minSeps);
+    sb.append(", minSeparateds " + minSeparateds);
+    sb.append(", feasibles " + feasibles);
+    sb.append(", sieves " + sieves);
+    sb.append(", sieveCandidates " + sieveCandidates);
+    sb.append(", findCap " + findCapCalls);
+    sb.append(", tryUnion " + tryUnionCalls);
+    sb.append(", findCapForRoot " + findCapForRootCalls);
+    sb.append(", tryUnionForRoot " + tryUnionForRootCalls);
+    sb.append(", maxDepth " + maxDepth);
+    sb.append("; millisecs: minSeps " + minSepsTime / 1000000);
+    sb.append(", dp " + dpTime / 1000000);
+    sb.append(", findRoot " + findRootTime / 1000000);
+    sb.append(", fillTD " + fillTDTime / 1000000);
+    return sb.toString();
+  }
+}
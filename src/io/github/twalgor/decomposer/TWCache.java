@@ -0,0 +1,213 @@
+package io.github.twalgor.decomposer;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import io.github.twalgor.common.Graph;
+import io.github.twalgor.common.WLColoring;
+
+/**
+ * Process-wide cache of treewidth results for small graphs.
+ * Graphs are bucketed by their Weisfeiler-Leman hash and identified
+ * up to isomorphism, so that relabeled copies of a graph share an entry.
+ * Each entry keeps an interval {@code [lb, ub]} known to contain
+ * the treewidth: a feasible query at {@code k} lowers {@code ub} to
+ * {@code k}, an infeasible one raises {@code lb} to {@code k + 1}.
+ * Buckets are evicted in the least-recently-used order.
+ */
+public class TWCache {
+  public static final int MAX_N = 80;
+  public static final int CAPACITY = 20000;
+  static final int ISO_BUDGET = 2000;
+
+  private static final TWCache instance = new TWCache(CAPACITY);
+
+  public static TWCache getInstance() {
+    return instance;
+  }
+
+  int capacity;
+  int size;
+  Map<Long, ArrayList<Entry>> buckets;
+
+  long hits;
+  long misses;
+  long evictions;
+
+  public TWCache(int capacity) {
+    this.capacity = capacity;
+    buckets = new LinkedHashMap<>(16, 0.75f, true);
+  }
+
+  /**
+   * Looks up the feasibility of the given graph for width {@code k}
+   * @param g graph
+   * @param k width
+   * @return {@code Boolean.TRUE} or {@code Boolean.FALSE} if the answer
+   * is known; {@code null} otherwise
+   */
+  public Boolean isFeasible(Graph g, int k) {
+    if (g.n > MAX_N) {
+      return null;
+    }
+    WLColoring wl = new WLColoring(g);
+    synchronized (this) {
+      Entry entry = find(wl);
+      if (entry != null && k >= entry.ub) {
+        hits++;
+        return Boolean.TRUE;
+      }
+      if (entry != null && k < entry.lb) {
+        hits++;
+        return Boolean.FALSE;
+      }
+      misses++;
+      return null;
+    }
+  }
+
+  /**
+   * Looks up the treewidth of the given graph
+   * @param g graph
+   * @return the treewidth if known; -1 otherwise
+   */
+  public int treewidth(Graph g) {
+    if (g.n > MAX_N) {
+      return -1;
+    }
+    WLColoring wl = new WLColoring(g);
+    synchronized (this) {
+      Entry entry = find(wl);
+      if (entry != null && entry.lb == entry.ub) {
+        hits++;
+        return entry.ub;
+      }
+      misses++;
+      return -1;
+    }
+  }
+
+  /**
+   * Looks up the best known lower bound on the treewidth of the given graph
+   * @param g graph
+   * @return the lower bound; 0 if nothing is known
+   */
+  public int lowerBound(Graph g) {
+    if (g.n > MAX_N) {
+      return 0;
+    }
+    WLColoring wl = new WLColoring(g);
+    synchronized (this) {
+      Entry entry = find(wl);
+      if (entry == null) {
+        return 0;
+      }
+      return entry.lb;
+    }
+  }
+
+  public void putFeasible(Graph g, int k, boolean feasible) {
+    if (g.n > MAX_N) {
+      return;
+    }
+    WLColoring wl = new WLColoring(g);
+    synchronized (this) {
+      Entry entry = findOrCreate(wl);
+      if (feasible && k < entry.ub) {
+        entry.ub = k;
+      }
+      if (!feasible && k + 1 > entry.lb) {
+        entry.lb = k + 1;
+      }
+    }
+  }
+
+  public void putTreewidth(Graph g, int tw) {
+    if (g.n > MAX_N) {
+      return;
+    }
+    WLColoring wl = new WLColoring(g);
+    synchronized (this) {
+      Entry entry = findOrCreate(wl);
+      entry.lb = tw;
+      entry.ub = tw;
+    }
+  }
+
+  Entry find(WLColoring wl) {
+    ArrayList<Entry> bucket = buckets.get(wl.hash);
+    if (bucket == null) {
+      return null;
+    }
+    for (Entry entry: bucket) {
+      if (wl.isomorphismTo(entry.wl, ISO_BUDGET) != null) {
+        return entry;
+      }
+    }
+    return null;
+  }
+
+  Entry findOrCreate(WLColoring wl) {
+    Entry entry = find(wl);
+    if (entry != null) {
+      return entry;
+    }
+    entry = new Entry(wl);
+    ArrayList<Entry> bucket = buckets.get(wl.hash);
+    if (bucket == null) {
+      bucket = new ArrayList<>();
+      buckets.put(wl.hash, bucket);
+    }
+    bucket.add(entry);
+    size++;
+    Iterator<ArrayList<Entry>> it = buckets.values().iterator();
+    while (size > capacity && it.hasNext()) {
+      ArrayList<Entry> eldest = it.next();
+      if (eldest == bucket) {
+        continue;
+      }
+      size -= eldest.size();
+      evictions += eldest.size();
+      it.remove();
+    }
+    return entry;
+  }
+
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  public synchronized long getEvictions() {
+    return evictions;
+  }
+
+  public synchronized int size() {
+    return size;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "TWCache: " + size + " entries, " + hits + " hits, " +
+        misses + " misses, " + evictions + " evictions";
+  }
+
+  class Entry {
+    WLColoring wl;
+    int lb;
+    int ub;
+
+    Entry(WLColoring wl) {
+      // the caller may modify its graph later
+      wl.g = wl.g.copy();
+      this.wl = wl;
+      lb = 0;
+      ub = wl.g.n - 1;
+    }
+  }
+}
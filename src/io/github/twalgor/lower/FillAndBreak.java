@@ -17,6 +17,7 @@ import io.github.twalgor.common.XBitSet;
 import io.github.twalgor.common.Minor;
 import io.github.twalgor.decomposer.SemiPID;
 import io.github.twalgor.decomposer.SemiPIDFull;
+import io.github.twalgor.decomposer.TWCache;
 import io.github.twalgor.main.Shared;
 import io.github.twalgor.acsd.ACSDecomposition;
 
@@ -72,7 +73,7 @@ public class FillAndBreak {
     }
 
     obs = deriveObstruction(minor, new HashSet<Edge>());
-    assert SemiPID.decompose(obs.getGraph()).width == lb;
+    assert SemiPID.treewidth(obs.getGraph()) == lb;
 
     if (VERBOSE) {
       log.log("obstruction: " + obs + ", " + (System.currentTimeMillis() - t0) + " millisecs");
@@ -83,7 +84,7 @@ public class FillAndBreak {
       if (newObs == null) {
         return td;
       }
-      lb = SemiPID.decompose(newObs.getGraph()).width;
+      lb = SemiPID.treewidth(newObs.getGraph());
       if (VERBOSE) {
         log.log("new lb: " + lb + ", " + (System.currentTimeMillis() - t0) + " millisecs");
         log.log("obstruction: " + newObs);
@@ -110,7 +111,7 @@ public class FillAndBreak {
     }
 
     obs = deriveObstruction(minor, new HashSet<Edge>());
-    assert SemiPID.decompose(obs.getGraph()).width == lb;
+    assert SemiPID.treewidth(obs.getGraph()) == lb;
 
     if (VERBOSE) {
       log.log("obstruction: " + obs + ", " + (System.currentTimeMillis() - t0) + " millisecs");
@@ -121,7 +122,7 @@ public class FillAndBreak {
       if (newObs == null) {
         return lb;
       }
-      lb = SemiPID.decompose(newObs.getGraph()).width;
+      lb = SemiPID.treewidth(newObs.getGraph());
       if (VERBOSE) {
         log.log("new lb: " + lb + ", " + (System.currentTimeMillis() - t0) + " millisecs");
         log.log("obstruction: " + newObs);
@@ -149,10 +150,26 @@ public class FillAndBreak {
 
   }
   
+  /**
+   * Starts from the given obstruction, saved in a previous run, 
+   * instead of computing the initial lower bound 
+   * @param obs the obstruction, a minor of the graph
+   * @param lb its treewidth
+   */
+  public void resume(Minor obs, int lb) {
+    this.obs = obs;
+    this.lb = lb;
+  }
+
+  // the bound cannot be raised further, or is no longer needed
+  boolean stopped() {
+    return lb >= shared.getUB() || shared.getStop();
+  }
+
   public int improvedLowerBound() {
     Minor newObs = improve();
     if (newObs != null) {
-      lb = SemiPID.decompose(newObs.getGraph()).width;
+      lb = SemiPID.treewidth(newObs.getGraph());
       obs = newObs;
       return lb;
     } else
@@ -172,7 +189,7 @@ public class FillAndBreak {
   }
   
   Minor lift(Minor minor, Set<Edge> filled) {
-    if (lb == shared.getUB()) {
+    if (stopped()) {
       return null;
     }
     if (TRACE) {
@@ -240,6 +257,11 @@ public class FillAndBreak {
     if (h.n <= k + 1) {
       return true;
     }
+    TWCache cache = TWCache.getInstance();
+    Boolean known = cache.isFeasible(h, k);
+    if (known != null) {
+      return known;
+    }
     SemiPID spid = new SemiPID(h, k, false);
     boolean isFeasible = spid.isFeasible();
     if (TRACE) {
@@ -247,12 +269,13 @@ public class FillAndBreak {
       spidfull.computeSafeSeps();
       assert isFeasible == !spidfull.safeSeps.isEmpty();
     }
-    return spid.isFeasible();
+    cache.putFeasible(h, k, isFeasible);
+    return isFeasible;
   }
   
   Minor deriveObstruction(Minor minor, Set<Edge> filled) {
     Graph h = getGraph(minor, filled);
-    int k = SemiPID.decompose(h).width;
+    int k = SemiPID.treewidth(h);
   
     Set<Edge> uncontractables = new HashSet<>();
     Minor mm = minor;
@@ -354,7 +377,7 @@ public class FillAndBreak {
     }
 
     Minor breakFill() {
-      if (lb == shared.getUB()) {
+      if (stopped()) {
         return null;
       }
       if (TRACE) {
@@ -367,7 +390,7 @@ public class FillAndBreak {
       XBitSet uncont = new XBitSet();
       
       while (feasible(uncont)) {
-        if (lb == shared.getUB()) {
+        if (stopped()) {
           return null;
         }
         if (TRACE) {
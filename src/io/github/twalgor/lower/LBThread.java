@@ -7,48 +7,141 @@ import io.github.twalgor.main.Shared;
 public class LBThread extends Thread {
   Minor baseMinor;
   Shared shared;
+  // the bounds of the atom: its upper bound and the lower bound by this thread
+  Shared local;
+  int atom;
   ResultFile rf;
+  // the obstruction to start from, saved in a previous run; null if none
+  Minor resumeObs;
+  int resumeLB;
+  // the latest obstruction and its width, for checkpointing
+  volatile Minor savedObs;
+  volatile int savedLB;
   
   public LBThread(Minor baseMinor, Shared shared, ResultFile rf) {
+    this(baseMinor, shared, shared, 0, rf);
+  }
+
+  /**
+   * Creates a thread computing lower bounds from an atom
+   * @param baseMinor the minor of the whole graph for the atom
+   * @param shared the global bounds; the lower bound is raised
+   * by this thread
+   * @param local the bounds of the atom; the upper bound is set from
+   * outside and the thread stops when the lower bound reaches it 
+   * @param atom the index of the atom, written with the certificates
+   * @param rf the certificate file, shared by the threads
+   */
+  public LBThread(Minor baseMinor, Shared shared, Shared local, int atom, 
+      ResultFile rf) {
     this.baseMinor = baseMinor;
     this.shared = shared;
+    this.local = local;
+    this.atom = atom;
     this.rf = rf;
   }
   
+  /**
+   * Makes this thread start from the given obstruction instead of 
+   * computing the initial lower bound
+   * @param obs the obstruction, a minor of the graph of the base minor
+   * @param lb its treewidth
+   */
+  public void resumeFrom(Minor obs, int lb) {
+    resumeObs = obs;
+    resumeLB = lb;
+  }
+
+  public int getAtom() {
+    return atom;
+  }
+
+  public Minor getBaseMinor() {
+    return baseMinor;
+  }
+
+  /**
+   * @return the latest obstruction, a minor of the graph of the base minor;
+   * {@code null} if none is obtained yet
+   */
+  public Minor getSavedObs() {
+    return savedObs;
+  }
+
+  public int getSavedLB() {
+    return savedLB;
+  }
+
+  // the obstruction first: a reader getting the width before the
+  // obstruction never gets a width above that of the obstruction
+  void save(FillAndBreak fb) {
+    savedObs = fb.obs;
+    savedLB = fb.lb;
+  }
+
   @Override
   public void run() {
-    
-    FillAndBreak fb = new FillAndBreak(baseMinor.getGraph(), shared);
-    fb.initialLowerBound();
-    shared.setLB(fb.lb);
-    Minor cert = fb.obs.composeWith(baseMinor);
-    long t = System.currentTimeMillis();
-    rf.addLine("certificate width " + shared.getLB() + " n " + 
-        cert.m + " time " + (t - shared.getT0()));
-    for (int i = 0; i < cert.m; i++) {
-      rf.addLine(i + " "+ cert.components[i]);
+    // stops FillAndBreak within its step as soon as the atom can no
+    // longer change the answer
+    Shared.Listener listener = s -> {
+      if (!local.getStop() && (s.getLB() >= local.getUB() || s.getStop())) {
+        local.setStop(true);
+      }
+    };
+    if (local != shared) {
+      shared.addListener(listener);
+    }
+    try {
+      improve();
+    } finally {
+      shared.removeListener(listener);
+    }
+  }
+
+  void improve() {
+    FillAndBreak fb = new FillAndBreak(baseMinor.getGraph(), local);
+    if (resumeObs != null) {
+      fb.resume(resumeObs, resumeLB);
     }
-    rf.close();
-    while (shared.getLB() < shared.getUB()) {
-      t = System.currentTimeMillis();
+    else {
+      fb.initialLowerBound();
+    }
+    save(fb);
+    if (shared.raiseLB(fb.lb)) {
+      writeCertificate(fb);
+    }
+    local.raiseLB(fb.lb);
+    // the lower bound of this atom cannot exceed its upper bound, and is
+    // of no use if the upper bound is not above the global lower bound
+    while (fb.lb < local.getUB() && shared.getLB() < local.getUB() && 
+        !local.getStop()) {
+      long t = System.currentTimeMillis();
       System.out.println(fb.lb + ", " + shared.getLB() + ":" + shared.getUB() + 
           ", " + (t - shared.getT0()) + " millilsecs");
       fb.improvedLowerBound();
-      if (fb.lb > shared.getLB()) {
-        t = System.currentTimeMillis();
-        System.out.println("lowerbound improved: " + fb.lb + ", " +  
-            (t - shared.getT0()) + " millilsecs");
-        shared.setLB(fb.lb);
-        cert = fb.obs.composeWith(baseMinor);
-        t = System.currentTimeMillis();
-        rf.addLine("certificate width " + shared.getLB() + " n " + 
-            cert.m + " time " + (t - shared.getT0()));
-        for (int i = 0; i < cert.m; i++) {
-          rf.addLine(i + " "+ cert.components[i]);
+      if (fb.lb > local.getLB()) {
+        if (shared.raiseLB(fb.lb)) {
+          t = System.currentTimeMillis();
+          System.out.println("lowerbound improved: " + fb.lb + ", " +  
+              (t - shared.getT0()) + " millilsecs");
+          writeCertificate(fb);
         }
-        rf.close();
+        local.raiseLB(fb.lb);
+        save(fb);
       }
     }
   }
 
+  void writeCertificate(FillAndBreak fb) {
+    Minor cert = fb.obs.composeWith(baseMinor);
+    synchronized (rf) {
+      long t = System.currentTimeMillis();
+      rf.addLine("certificate width " + fb.lb + " n " + 
+          cert.m + " time " + (t - shared.getT0()) + " atom " + atom);
+      for (int i = 0; i < cert.m; i++) {
+        rf.addLine(i + " "+ cert.components[i]);
+      }
+      rf.close();
+    }
+  }
 }
@@ -0,0 +1,114 @@
+package io.github.twalgor.main;
+
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import io.github.twalgor.upper.LocalUBNew;
+
+/**
+ * Runs the upper bound improvement of the atoms on a pool of threads,
+ * one worker per atom at a time.
+ * Idle threads are given to the atoms in the decreasing order of their
+ * upper bounds, so that the atoms whose upper bound equals the global one
+ * come first and the others, which become the bottleneck once those are
+ * improved, use the remaining threads.
+ * The work on an atom whose upper bound is not above the global lower
+ * bound is preempted, as it can no longer change the answer, and atoms
+ * known to be solved are not scheduled at all.
+ */
+public class AtomScheduler {
+  LocalUBNew[] localUB;
+  Shared shared;
+  int nThreads;
+  ExecutorService pool;
+  boolean[] busy;
+  int nBusy;
+  BlockingQueue<Integer> finished;
+  volatile Throwable failure;
+
+  public AtomScheduler(LocalUBNew[] localUB, Shared shared, int nThreads) {
+    this.localUB = localUB;
+    this.shared = shared;
+    this.nThreads = nThreads;
+    busy = new boolean[localUB.length];
+    finished = new LinkedBlockingQueue<>();
+    pool = Executors.newFixedThreadPool(nThreads, r -> {
+      Thread t = new Thread(r, "AtomScheduler");
+      t.setDaemon(true);
+      return t;
+    });
+  }
+
+  /**
+   * Gives the idle threads to the idle atoms, the larger upper bound first
+   * and the larger atom first among the ties, and cancels the work
+   * on the atoms that can no longer change the answer
+   */
+  public void dispatch() {
+    int lb = shared.getLB();
+    Integer[] order = new Integer[localUB.length];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+      if (busy[i] && localUB[i].getUB() <= lb) {
+        localUB[i].cancel();
+      }
+    }
+    // stable: the atoms are sorted by size
+    Arrays.sort(order, (i, j) -> localUB[j].getUB() - localUB[i].getUB());
+    for (int i: order) {
+      if (nBusy >= nThreads) {
+        return;
+      }
+      if (busy[i] || localUB[i].getUB() <= lb || localUB[i].isOptimal()) {
+        continue;
+      }
+      busy[i] = true;
+      nBusy++;
+      pool.execute(() -> {
+        try {
+          localUB[i].improveUB();
+        } catch (Throwable e) {
+          failure = e;
+        }
+        finished.add(i);
+      });
+    }
+  }
+
+  /**
+   * Waits until the work on some atom ends, either by an improvement
+   * or by preemption
+   * @return the index of the atom; -1 if no work is going on
+   */
+  public int awaitCompletion() {
+    if (nBusy == 0) {
+      return -1;
+    }
+    int i;
+    try {
+      i = finished.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    }
+    busy[i] = false;
+    nBusy--;
+    if (failure != null) {
+      throw new RuntimeException(failure);
+    }
+    return i;
+  }
+
+  /**
+   * Cancels the work on all atoms and lets the threads finish
+   */
+  public void shutdown() {
+    for (LocalUBNew lub: localUB) {
+      lub.cancel();
+    }
+    pool.shutdown();
+  }
+}
@@ -0,0 +1,358 @@
+package io.github.twalgor.main;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import io.github.twalgor.common.Graph;
+import io.github.twalgor.common.Minor;
+import io.github.twalgor.common.XBitSet;
+import io.github.twalgor.lower.LBThread;
+import io.github.twalgor.upper.LocalUBNew;
+
+/**
+ * Saves the state of an {@code UpLow} run periodically into a binary
+ * snapshot, from which a later run can resume.
+ * The state consists of the bounds, the vertex set, the triangulation and
+ * the potential maximal cliques of each atom, and the obstruction of each
+ * lower bound thread.
+ * The workers are not stopped: the potential maximal cliques of an atom
+ * being worked on are those its worker has saved at the end of a step,
+ * on the request made at the beginning of the interval, and the saved
+ * copies are dropped once written.
+ * The snapshot is written on a background thread into a temporary file,
+ * which replaces the previous snapshot by an atomic rename.
+ * <p>
+ * Layout, in big-endian: magic and version (longs), n and the number of
+ * edges of the graph (ints), the checksum of the graph (long), the lower
+ * and upper bounds (ints); the number of atoms (int) and, for each atom,
+ * its vertex set, the number of its vertices (int), the neighbor sets of
+ * its triangulation in the local numbering, the number of its pmcs (int)
+ * and the pmcs; the number of obstructions (int) and, for each, the
+ * index of its atom, its width and the number of its components (ints),
+ * and the components; finally the CRC32 of all preceding bytes (long).
+ * A vertex set is written as the number of its words (int) followed by
+ * the words (longs).
+ */
+public class Checkpoint {
+  static final long MAGIC = 0x55504c4f57434b31L;
+  static final long VERSION = 1;
+  public static final long DEFAULT_INTERVAL_MILLIS = 10 * 60 * 1000;
+
+  File file;
+  Graph g;
+  XBitSet[] atoms;
+  LocalUBNew[] localUB;
+  Shared shared;
+  // indexed by atom; null for the atoms without a lower bound thread
+  LBThread[] lbThreads;
+  volatile boolean stopped;
+  long written;
+
+  public Checkpoint(File file, Graph g, XBitSet[] atoms, LocalUBNew[] localUB,
+      Shared shared, LBThread[] lbThreads) {
+    this.file = file;
+    this.g = g;
+    this.atoms = atoms;
+    this.localUB = localUB;
+    this.shared = shared;
+    this.lbThreads = lbThreads;
+  }
+
+  /**
+   * Starts writing the snapshot on a background thread at the given interval
+   * @param intervalMillis the interval in milliseconds
+   */
+  public void start(long intervalMillis) {
+    Thread thread = new Thread(() -> {
+      while (!stopped) {
+        for (LocalUBNew lub: localUB) {
+          lub.requestSave();
+        }
+        try {
+          Thread.sleep(intervalMillis);
+        } catch (InterruptedException e) {
+          return;
+        }
+        if (!stopped) {
+          write();
+        }
+      }
+    }, "Checkpoint");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Stops the periodic writing; a write in progress is completed
+   */
+  public void stop() {
+    stopped = true;
+  }
+
+  /**
+   * Writes the snapshot of the current state
+   */
+  public synchronized void write() {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    File tmp = new File(file.getPath() + ".tmp");
+    try {
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeLong(MAGIC);
+      out.writeLong(VERSION);
+      out.writeInt(g.n);
+      out.writeInt(g.numberOfEdges());
+      out.writeLong(graphChecksum(g));
+      out.writeInt(shared.getLB());
+      out.writeInt(shared.getUB());
+      out.writeInt(atoms.length);
+      for (int i = 0; i < atoms.length; i++) {
+        writeSet(out, atoms[i]);
+        Graph tr = localUB[i].getTriangulated();
+        out.writeInt(tr.n);
+        for (int v = 0; v < tr.n; v++) {
+          writeSet(out, tr.neighborSet[v]);
+        }
+        List<XBitSet> pmcs = localUB[i].getSavedPMCs();
+        out.writeInt(pmcs.size());
+        for (XBitSet pmc: pmcs) {
+          writeSet(out, pmc);
+        }
+      }
+      ArrayList<LBThread> saved = new ArrayList<>();
+      for (LBThread lbThread: lbThreads) {
+        if (lbThread != null && lbThread.getSavedObs() != null) {
+          saved.add(lbThread);
+        }
+      }
+      out.writeInt(saved.size());
+      for (LBThread lbThread: saved) {
+        int lb = lbThread.getSavedLB();
+        Minor obs = lbThread.getSavedObs();
+        out.writeInt(lbThread.getAtom());
+        out.writeInt(lb);
+        out.writeInt(obs.m);
+        for (int j = 0; j < obs.m; j++) {
+          writeSet(out, obs.components[j]);
+        }
+      }
+      out.flush();
+      CRC32 crc = new CRC32();
+      crc.update(bytes.toByteArray());
+      out.writeLong(crc.getValue());
+      out.flush();
+      Files.write(tmp.toPath(), bytes.toByteArray());
+      Files.move(tmp.toPath(), file.toPath(),
+          StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      written++;
+      for (LocalUBNew lub: localUB) {
+        lub.releaseSaved();
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+      tmp.delete();
+    }
+  }
+
+  /**
+   * The state read from a snapshot
+   */
+  public static class Snapshot {
+    // the global bounds when written, against which the resumed ones are
+    // checked
+    public int lb;
+    public int ub;
+    XBitSet[] atoms;
+    Graph[] triangulations;
+    ArrayList<ArrayList<XBitSet>> pmcs;
+    HashMap<XBitSet, Integer> atomIndex;
+    // indexed by the atoms of the snapshot; null where not saved
+    XBitSet[][] obstructions;
+    int[] obstructionLB;
+
+    /**
+     * @param atom the vertex set of an atom
+     * @return the index of the atom in the snapshot; -1 if not there
+     */
+    public int indexOf(XBitSet atom) {
+      Integer k = atomIndex.get(atom);
+      return k == null ? -1 : k;
+    }
+
+    public Graph getTriangulation(int k) {
+      return triangulations[k];
+    }
+
+    public List<XBitSet> getPMCs(int k) {
+      return pmcs.get(k);
+    }
+
+    /**
+     * Returns the obstruction saved for the atom, verified as
+     * {@code WarmStart} verifies a certificate: its components must be
+     * disjoint connected vertex sets of {@code h}, and the minor they
+     * define must have the saved width, so that a snapshot of another
+     * numbering of the atom cannot raise the lower bound
+     * @param k the index of the atom in the snapshot
+     * @param h the graph of the base minor of the lower bound thread
+     * @return the obstruction saved for the atom, as a minor of {@code h};
+     * {@code null} if none is saved or it is not verified
+     */
+    public Minor getObstruction(int k, Graph h) {
+      if (obstructions[k] == null) {
+        return null;
+      }
+      if (!WarmStart.isMinor(h, obstructions[k])) {
+        System.out.println("resume: obstruction of atom " + k + 
+            " is not a minor");
+        return null;
+      }
+      Minor obs = new Minor(h, obstructions[k]);
+      if (!WarmStart.verify(obs, obstructionLB[k])) {
+        System.out.println("resume: obstruction of atom " + k + 
+            " not of width " + obstructionLB[k]);
+        return null;
+      }
+      return obs;
+    }
+
+    public int getObstructionLB(int k) {
+      return obstructionLB[k];
+    }
+  }
+
+  /**
+   * Reads a snapshot written for the given graph
+   * @param file the snapshot file
+   * @param g the graph
+   * @return the snapshot; {@code null} if the file does not exist, is
+   * corrupted, or is written for another graph
+   */
+  public static Snapshot read(File file, Graph g) {
+    if (!file.exists()) {
+      System.out.println("resume: no checkpoint " + file);
+      return null;
+    }
+    try {
+      byte[] data = Files.readAllBytes(file.toPath());
+      if (data.length < 8) {
+        throw new IOException("truncated");
+      }
+      CRC32 crc = new CRC32();
+      crc.update(data, 0, data.length - 8);
+      if (crc.getValue() != ByteBuffer.wrap(data, data.length - 8, 8).getLong()) {
+        throw new IOException("checksum mismatch");
+      }
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+      if (in.readLong() != MAGIC || in.readLong() != VERSION) {
+        throw new IOException("not a checkpoint of this version");
+      }
+      if (in.readInt() != g.n || in.readInt() != g.numberOfEdges() ||
+          in.readLong() != graphChecksum(g)) {
+        System.out.println("resume: checkpoint of another graph " + file);
+        return null;
+      }
+      Snapshot snapshot = new Snapshot();
+      snapshot.lb = in.readInt();
+      snapshot.ub = in.readInt();
+      int na = in.readInt();
+      snapshot.atoms = new XBitSet[na];
+      snapshot.triangulations = new Graph[na];
+      snapshot.pmcs = new ArrayList<>();
+      snapshot.atomIndex = new HashMap<>();
+      snapshot.obstructions = new XBitSet[na][];
+      snapshot.obstructionLB = new int[na];
+      for (int k = 0; k < na; k++) {
+        snapshot.atoms[k] = readSet(in);
+        snapshot.atomIndex.put(snapshot.atoms[k], k);
+        Graph tr = new Graph(in.readInt());
+        for (int v = 0; v < tr.n; v++) {
+          XBitSet nb = readSet(in);
+          for (int w = nb.nextSetBit(v + 1); w >= 0; w = nb.nextSetBit(w + 1)) {
+            if (w >= tr.n) {
+              throw new IOException("vertex out of range");
+            }
+            tr.addEdge(v, w);
+          }
+        }
+        snapshot.triangulations[k] = tr;
+        int np = in.readInt();
+        ArrayList<XBitSet> pmcs = new ArrayList<>(np);
+        for (int j = 0; j < np; j++) {
+          pmcs.add(readSet(in));
+        }
+        snapshot.pmcs.add(pmcs);
+      }
+      int no = in.readInt();
+      for (int j = 0; j < no; j++) {
+        int k = in.readInt();
+        int lb = in.readInt();
+        XBitSet[] components = new XBitSet[in.readInt()];
+        for (int c = 0; c < components.length; c++) {
+          components[c] = readSet(in);
+        }
+        snapshot.obstructions[k] = components;
+        snapshot.obstructionLB[k] = lb;
+      }
+      return snapshot;
+    } catch (IOException | RuntimeException e) {
+      System.out.println("resume: unusable checkpoint " + file + ": " + e);
+      return null;
+    }
+  }
+
+  static long graphChecksum(Graph g) {
+    CRC32 crc = new CRC32();
+    ByteBuffer buf = ByteBuffer.allocate(8);
+    for (int v = 0; v < g.n; v++) {
+      for (long word: g.neighborSet[v].toLongArray()) {
+        buf.clear();
+        buf.putLong(word);
+        crc.update(buf.array());
+      }
+      buf.clear();
+      buf.putLong(-1);
+      crc.update(buf.array());
+    }
+    return crc.getValue();
+  }
+
+  static void writeSet(DataOutputStream out, XBitSet s) throws IOException {
+    long[] words = s.toLongArray();
+    out.writeInt(words.length);
+    for (long word: words) {
+      out.writeLong(word);
+    }
+  }
+
+  static XBitSet readSet(DataInputStream in) throws IOException {
+    int nw = in.readInt();
+    if (nw < 0) {
+      throw new IOException("negative length");
+    }
+    XBitSet s = new XBitSet(nw * 64);
+    for (int j = 0; j < nw; j++) {
+      long w = in.readLong();
+      while (w != 0) {
+        s.set(j * 64 + Long.numberOfTrailingZeros(w));
+        w &= w - 1;
+      }
+    }
+    return s;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "Checkpoint " + file + ": " + written + " written";
+  }
+}
@@ -10,6 +10,7 @@ import io.github.twalgor.common.LocalGraph;
 import io.github.twalgor.common.TreeDecomposition;
 import io.github.twalgor.common.XBitSet;
 import io.github.twalgor.decomposer.SemiPID;
+import io.github.twalgor.minseps.MinSepsStore;
 
 public class ExactTW {
   public static void main(String[] args) {
@@ -17,9 +18,14 @@ public class ExactTW {
     String graphPath = args[0];
     String tdPath = args[1];
     boolean viaACSD = false;
-    if (args.length == 3 &&
-      args[2].equals("-acsd")) {
-      viaACSD = true;
+    for (int i = 2; i < args.length; i++) {
+      if (args[i].equals("-acsd")) {
+        viaACSD = true;
+      }
+      else if (args[i].equals("-cache") && i + 1 < args.length) {
+        MinSepsStore.setDefault(new MinSepsStore(new File(args[++i]), 
+            MinSepsStore.DEFAULT_MAX_BYTES));
+      }
     }
     
     Graph g = Graph.readGraph(new File(graphPath));
@@ -1,43 +1,36 @@
 package io.github.twalgor.main;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.PrintStream;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
-import java.util.Date;
+import java.util.ArrayList;
+import java.util.Collections;
 
+/**
+ * A result file, whose lines are accumulated in memory and handed to
+ * the {@code ResultPublisher} on each {@code close}, so that the file on
+ * disk always holds the lines up to some {@code close}.
+ */
 public class ResultFile {
   File file;
-  PrintStream ps;
-  
+  ArrayList<String> lines;
+
   public ResultFile(String path) {
     file =  new File(path);
-    File dir = new File(file.getParent());
+    File dir = file.getAbsoluteFile().getParentFile();
     dir.mkdirs();
-    
-    try {
-      ps = new PrintStream(new FileOutputStream(file, false));
-    } catch (FileNotFoundException e) {
-      e.printStackTrace();
-    }
+    lines = new ArrayList<>();
   }
-  
-  public void addLine(String line) {
-    if (ps == null) {
-      try {
-        ps = new PrintStream(new FileOutputStream(file, true));
-      } catch (FileNotFoundException e) {
-        e.printStackTrace();
-      }
-    }
-    ps.println(line);
+
+  public synchronized void addLine(String line) {
+    lines.add(line);
   }
-  
-  public void close() {
-    ps.close();
-    ps = null;
+
+  /**
+   * Publishes the lines added so far as the content of the file.
+   * The lines are kept: lines added afterwards are published together
+   * with them on the next call.
+   */
+  public synchronized void close() {
+    ResultPublisher.getInstance().publish(file,
+        Collections.unmodifiableList(new ArrayList<>(lines)));
   }
 }
@@ -0,0 +1,126 @@
+package io.github.twalgor.main;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the result files on a background thread, so that the solver
+ * threads do not wait for the disk.
+ * A file is always written as a whole into a temporary file, which then
+ * replaces it by an atomic rename: a reader sees either the previous
+ * content or the new one, never a partial one.
+ * When several contents of a file are published before the writer gets
+ * to it, only the last one is written.
+ * The pending contents are written before the JVM exits.
+ */
+public class ResultPublisher {
+  private static ResultPublisher instance;
+
+  public static synchronized ResultPublisher getInstance() {
+    if (instance == null) {
+      instance = new ResultPublisher();
+    }
+    return instance;
+  }
+
+  // the latest unwritten content of each file
+  LinkedHashMap<File, List<String>> pending;
+  boolean writing;
+  long published;
+  long written;
+
+  ResultPublisher() {
+    pending = new LinkedHashMap<>();
+    Thread writer = new Thread(this::run, "ResultPublisher");
+    writer.setDaemon(true);
+    writer.start();
+    Runtime.getRuntime().addShutdownHook(new Thread(this::flush));
+  }
+
+  /**
+   * Hands the content of a file to the writer
+   * @param file the file
+   * @param lines the lines of the content, which must not be modified
+   * afterwards
+   */
+  public synchronized void publish(File file, List<String> lines) {
+    pending.put(file, lines);
+    published++;
+    notifyAll();
+  }
+
+  /**
+   * Waits until all the contents published so far are written
+   */
+  public synchronized void flush() {
+    while (!pending.isEmpty() || writing) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+
+  void run() {
+    while (true) {
+      Map<File, List<String>> batch;
+      synchronized (this) {
+        while (pending.isEmpty()) {
+          try {
+            wait();
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+        batch = new LinkedHashMap<>(pending);
+        pending.clear();
+        writing = true;
+      }
+      for (Map.Entry<File, List<String>> entry: batch.entrySet()) {
+        write(entry.getKey(), entry.getValue());
+      }
+      synchronized (this) {
+        written += batch.size();
+        writing = false;
+        notifyAll();
+      }
+    }
+  }
+
+  static void write(File file, List<String> lines) {
+    // in the same directory, so that the rename is atomic
+    File tmp = new File(file.getPath() + ".tmp");
+    try {
+      try (PrintStream ps = new PrintStream(
+          new BufferedOutputStream(new FileOutputStream(tmp)))) {
+        for (String line: lines) {
+          ps.println(line);
+        }
+        if (ps.checkError()) {
+          throw new IOException("failed to write " + tmp);
+        }
+      }
+      Files.move(tmp.toPath(), file.toPath(),
+          StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      e.printStackTrace();
+      tmp.delete();
+    }
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "ResultPublisher: " + published + " published, " +
+        written + " written";
+  }
+}
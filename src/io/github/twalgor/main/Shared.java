@@ -1,46 +1,105 @@
 package io.github.twalgor.main;
 
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The bounds shared by the upper and lower bound workers.
+ * The bounds are read without locking and are updated monotonically
+ * by compare-and-set, so that concurrent workers never move a bound
+ * backwards. The listeners are notified of every change, on the thread
+ * making the change, so that workers depending on the bounds need not
+ * poll them.
+ */
 public class Shared {
-  int ub;
-  int lb;
-  boolean stop;
+  AtomicInteger ub;
+  AtomicInteger lb;
+  volatile boolean stop;
   long t0;
-  
-  public synchronized int getUB() {
-    return ub;
+  CopyOnWriteArrayList<Listener> listeners;
+
+  /**
+   * Receives the changes of the bounds and of the stop flag.
+   * It is called on the thread making the change and should return
+   * quickly.
+   */
+  public interface Listener {
+    void boundsChanged(Shared shared);
   }
 
-  public synchronized void setUB(int ub) {
-    this.ub = ub;
+  public Shared(int ub, int lb, long t0) {
+    this.ub = new AtomicInteger(ub);
+    this.lb = new AtomicInteger(lb);
+    this.t0 = t0;
+    listeners = new CopyOnWriteArrayList<>();
   }
 
-  public synchronized int getLB() {
-    return lb;
+  public void addListener(Listener listener) {
+    listeners.add(listener);
   }
 
-  public synchronized void setLB(int lb) {
-    this.lb = lb;
+  public void removeListener(Listener listener) {
+    listeners.remove(listener);
   }
 
-  public synchronized boolean getStop() {
+  void fire() {
+    for (Listener listener: listeners) {
+      listener.boundsChanged(this);
+    }
+  }
+
+  public int getUB() {
+    return ub.get();
+  }
+
+  /**
+   * Sets the upper bound if it is smaller than the current one
+   * @param ub the new upper bound
+   * @return {@code true} if the upper bound has been lowered
+   */
+  public boolean lowerUB(int ub) {
+    int current;
+    do {
+      current = this.ub.get();
+      if (ub >= current) {
+        return false;
+      }
+    } while (!this.ub.compareAndSet(current, ub));
+    fire();
+    return true;
+  }
+
+  public int getLB() {
+    return lb.get();
+  }
+
+  /**
+   * Sets the lower bound if it is larger than the current one
+   * @param lb the new lower bound
+   * @return {@code true} if the lower bound has been raised
+   */
+  public boolean raiseLB(int lb) {
+    int current;
+    do {
+      current = this.lb.get();
+      if (lb <= current) {
+        return false;
+      }
+    } while (!this.lb.compareAndSet(current, lb));
+    fire();
+    return true;
+  }
+
+  public boolean getStop() {
     return stop;
   }
 
-  public synchronized void setStop(boolean stop) {
+  public void setStop(boolean stop) {
     this.stop = stop;
+    fire();
   }
 
-  
-  
   public long getT0() {
     return t0;
   }
-  
-  public Shared(int ub, int lb, long t0) {
-    this.ub = ub;
-    this.lb = lb;
-    this.t0 = t0;
-  }
-  
-  
 }
@@ -0,0 +1,212 @@
+package io.github.twalgor.main;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import io.github.twalgor.common.Graph;
+import io.github.twalgor.common.TreeDecomposition;
+import io.github.twalgor.common.XBitSet;
+import io.github.twalgor.upper.LocalUBNew;
+
+/**
+ * Assembles the tree-decomposition of the whole graph from those of
+ * the atoms.
+ * The atoms are linked into a tree, a maximum weight spanning tree of
+ * their intersection graph with the sizes of the intersections as weights.
+ * The intersection of linked atoms is a separator, which is a clique in
+ * the triangulations of both atoms; the decompositions of the two atoms
+ * are glued by an edge between a bag of each containing it.
+ * The decomposition of an atom, together with the bags at which it is
+ * glued, is recomputed only when the triangulation of the atom changes.
+ */
+public class TDAssembler {
+  Graph g;
+  XBitSet[] atoms;
+  LocalUBNew[] localUB;
+
+  // the links of the atom tree, the pair of atoms and their intersection
+  int[][] links;
+  XBitSet[] seps;
+  // the indices of the links incident to each atom
+  int[][] incident;
+  // the bag of each end of each link, in the decomposition of the atom
+  int[][] attach;
+
+  // the triangulations from which the decompositions are computed
+  Graph[] source;
+  TreeDecomposition[] atomTD;
+  int rebuilt;
+
+  public TDAssembler(Graph g, XBitSet[] atoms, LocalUBNew[] localUB) {
+    this.g = g;
+    this.atoms = atoms;
+    this.localUB = localUB;
+    source = new Graph[atoms.length];
+    atomTD = new TreeDecomposition[atoms.length];
+    linkAtoms();
+  }
+
+  void linkAtoms() {
+    int na = atoms.length;
+    ArrayList<ArrayList<Integer>> atomsOf = new ArrayList<>();
+    for (int v = 0; v < g.n; v++) {
+      atomsOf.add(new ArrayList<>());
+    }
+    for (int i = 0; i < na; i++) {
+      for (int v = atoms[i].nextSetBit(0); v >= 0; v = atoms[i].nextSetBit(v + 1)) {
+        atomsOf.get(v).add(i);
+      }
+    }
+    // only the pairs sharing a vertex are candidates
+    Set<Long> pairSet = new HashSet<>();
+    for (ArrayList<Integer> list: atomsOf) {
+      for (int p = 0; p < list.size(); p++) {
+        for (int q = p + 1; q < list.size(); q++) {
+          pairSet.add((long) list.get(p) * na + list.get(q));
+        }
+      }
+    }
+    long[] pairs = new long[pairSet.size()];
+    int[] weight = new int[pairs.length];
+    Integer[] order = new Integer[pairs.length];
+    int k = 0;
+    for (long pair: pairSet) {
+      pairs[k] = pair;
+      weight[k] = atoms[(int) (pair / na)].intersectWith(atoms[(int) (pair % na)]).cardinality();
+      order[k] = k;
+      k++;
+    }
+    Arrays.sort(order, (p, q) -> weight[q] - weight[p]);
+
+    int[] parent = new int[na];
+    for (int i = 0; i < na; i++) {
+      parent[i] = i;
+    }
+    ArrayList<int[]> linkList = new ArrayList<>();
+    for (int p: order) {
+      int i = (int) (pairs[p] / na);
+      int j = (int) (pairs[p] % na);
+      int ri = find(parent, i);
+      int rj = find(parent, j);
+      if (ri != rj) {
+        parent[ri] = rj;
+        linkList.add(new int[] {i, j});
+      }
+    }
+    // the atoms of different components of the graph share nothing
+    for (int i = 1; i < na; i++) {
+      int r0 = find(parent, 0);
+      int ri = find(parent, i);
+      if (ri != r0) {
+        parent[ri] = r0;
+        linkList.add(new int[] {0, i});
+      }
+    }
+
+    links = linkList.toArray(new int[linkList.size()][]);
+    seps = new XBitSet[links.length];
+    attach = new int[links.length][2];
+    int[] degree = new int[na];
+    for (int l = 0; l < links.length; l++) {
+      seps[l] = atoms[links[l][0]].intersectWith(atoms[links[l][1]]);
+      degree[links[l][0]]++;
+      degree[links[l][1]]++;
+    }
+    incident = new int[na][];
+    for (int i = 0; i < na; i++) {
+      incident[i] = new int[degree[i]];
+      degree[i] = 0;
+    }
+    for (int l = 0; l < links.length; l++) {
+      for (int i: links[l]) {
+        incident[i][degree[i]++] = l;
+      }
+    }
+  }
+
+  static int find(int[] parent, int i) {
+    while (parent[i] != i) {
+      parent[i] = parent[parent[i]];
+      i = parent[i];
+    }
+    return i;
+  }
+
+  /**
+   * Recomputes the decompositions of the atoms whose triangulations
+   * have been replaced since the last call
+   */
+  void refresh() {
+    for (int i = 0; i < atoms.length; i++) {
+      Graph tr = localUB[i].getTriangulated();
+      if (tr == source[i]) {
+        continue;
+      }
+      source[i] = tr;
+      atomTD[i] = localUB[i].toGlobalTD(tr);
+      rebuilt++;
+      XBitSet[] bagSets = new XBitSet[atomTD[i].nb + 1];
+      for (int b = 1; b <= atomTD[i].nb; b++) {
+        bagSets[b] = new XBitSet(atomTD[i].bags[b]);
+      }
+      for (int l: incident[i]) {
+        int end = links[l][0] == i ? 0 : 1;
+        attach[l][end] = bagContaining(bagSets, seps[l]);
+      }
+    }
+  }
+
+  static int bagContaining(XBitSet[] bagSets, XBitSet sep) {
+    for (int b = 1; b < bagSets.length; b++) {
+      if (bagSets[b].isSuperset(sep)) {
+        return b;
+      }
+    }
+    throw new RuntimeException("no bag contains the separator " + sep);
+  }
+
+  /**
+   * Assembles the tree-decomposition of the whole graph from the current
+   * triangulations of the atoms
+   * @return the tree-decomposition
+   */
+  public TreeDecomposition assemble() {
+    refresh();
+    int[] offset = new int[atoms.length];
+    int nb = 0;
+    int width = 0;
+    for (int i = 0; i < atoms.length; i++) {
+      offset[i] = nb;
+      nb += atomTD[i].nb;
+      width = Math.max(width, atomTD[i].width);
+    }
+    TreeDecomposition td = new TreeDecomposition(nb, width, g);
+    for (int i = 0; i < atoms.length; i++) {
+      TreeDecomposition atd = atomTD[i];
+      for (int b = 1; b <= atd.nb; b++) {
+        td.setBag(offset[i] + b, atd.bags[b]);
+      }
+      for (int b = 1; b <= atd.nb; b++) {
+        for (int j = 0; j < atd.degree[b]; j++) {
+          if (atd.neighbor[b][j] > b) {
+            td.addEdge(offset[i] + b, offset[i] + atd.neighbor[b][j]);
+          }
+        }
+      }
+    }
+    for (int l = 0; l < links.length; l++) {
+      td.addEdge(offset[links[l][0]] + attach[l][0],
+          offset[links[l][1]] + attach[l][1]);
+    }
+    return td;
+  }
+
+  /**
+   * @return the number of decompositions of atoms computed so far
+   */
+  public int getRebuilt() {
+    return rebuilt;
+  }
+}
@@ -6,19 +6,34 @@ import java.util.Calendar;
 import java.util.Date;
 
 import io.github.twalgor.acsd.ACSDecomposition;
-import io.github.twalgor.common.Chordal;
 import io.github.twalgor.common.Graph;
 import io.github.twalgor.common.Minor;
 import io.github.twalgor.common.TreeDecomposition;
 import io.github.twalgor.common.XBitSet;
+import io.github.twalgor.decomposer.SemiPID;
+import io.github.twalgor.decomposer.TWCache;
 import io.github.twalgor.lower.FillAndBreak;
 import io.github.twalgor.lower.LBThread;
+import io.github.twalgor.minseps.MinSepsGenerator;
+import io.github.twalgor.minseps.MinSepsStore;
 import io.github.twalgor.upper.HBTMerge;
 import io.github.twalgor.upper.LocalUBNew;
+import io.github.twalgor.upper.PMCBudget;
 
 
 public class UpLow {
   static final int VERSION = 1;
+  // the number of threads improving the upper bounds of the atoms
+  static int threads = 1;
+  // the number of atoms for which lower bounds are computed
+  static int lbAtoms = 1;
+  // the results of a previous run to start from; null if not given
+  static String warmTDPath;
+  static String warmCertPath;
+  // the snapshot file written periodically, and the one to resume from
+  static String checkpointPath;
+  static long checkpointMillis = Checkpoint.DEFAULT_INTERVAL_MILLIS;
+  static String resumePath;
   
   private static void solve(String graphPath, String tdPath, String certPath) {
     Calendar cl = Calendar.getInstance();
@@ -35,6 +50,19 @@ public class UpLow {
 
     Graph g = Graph.readGraph(new File(graphPath));
 
+    // read before the results of this run overwrite them
+    WarmStart warm = new WarmStart(g);
+    if (warmTDPath != null) {
+      warm.readTriangulation(warmTDPath);
+    }
+    if (warmCertPath != null) {
+      warm.readCertificate(warmCertPath);
+    }
+    Checkpoint.Snapshot snapshot = null;
+    if (resumePath != null) {
+      snapshot = Checkpoint.read(new File(resumePath), g);
+    }
+
     ResultFile certFile = new ResultFile(certPath);
     certFile.addLine("title lowerbound certificates generated by FillAndBreak in the heuristic exact treewidth computation");
     certFile.addLine("param UNC_CHUNK " + FillAndBreak.UNC_CHUNK);
@@ -54,18 +82,32 @@ public class UpLow {
     for (int i = 0; i < aa.length; i++) {
       localUB[i] = new LocalUBNew(g, aa[i], shared);
       localUB[i].initialUB();
+      if (warm.triangulation != null && localUB[i].seed(warm.triangulation)) {
+        System.out.println("warm start: atom " + i + " from " + 
+            localUB[i].getUB());
+      }
+      int k = snapshot == null ? -1 : snapshot.indexOf(aa[i]);
+      if (k >= 0 && (localUB[i].restore(snapshot.getTriangulation(k), 
+          snapshot.getPMCs(k)) || !snapshot.getPMCs(k).isEmpty())) {
+        System.out.println("resume: atom " + i + " from " + localUB[i].getUB() + 
+            " with " + snapshot.getPMCs(k).size() + " pmcs");
+      }
     }
     int iMax = maxUBIndex(localUB);
 
     int ub = localUB[iMax].getUB();
-    
-    Graph tr = g.copy();
-    for (LocalUBNew lub: localUB) {
-      lub.fillTriangulation(tr);
+    if (snapshot != null) {
+      // the triangulations saved give at most the upper bound saved
+      System.out.println("resume: upper bound " + ub + ", " + 
+          snapshot.ub + " in the snapshot");
+      if (ub > snapshot.ub) {
+        System.out.println("resume: some triangulations of the snapshot " + 
+            "are not taken");
+      }
     }
     
-    TreeDecomposition td = Chordal.chordalToTD(tr);
-    td.g = g;
+    TDAssembler assembler = new TDAssembler(g, aa, localUB);
+    TreeDecomposition td = assembler.assemble();
     long t = System.currentTimeMillis();
     assert td.width == ub;
     ResultFile tdFile = new ResultFile(tdPath);
@@ -88,59 +130,180 @@ public class UpLow {
     }
     tdFile.close();
 
-    shared.setUB(ub);
+    shared.lowerUB(ub);
     
     certFile.addLine("largest_atom " + aa[0].cardinality());
 
     certFile.addLine("local_graph n " + localUB[0].getGraph().n + " m " + 
         localUB[0].getGraph().numberOfEdges());
+    // the atoms named by the certificates
+    for (int i = 0; i < aa.length; i++) {
+      certFile.addLine("atom " + i + " " + aa[i]);
+    }
+
+    if (warm.certificate != null) {
+      // carried over, so that the certificates of this run are complete
+      shared.raiseLB(warm.certificateWidth);
+      System.out.println("warm start: lower bound " + warm.certificateWidth);
+      certFile.addLine("certificate width " + warm.certificateWidth + " n " + 
+          warm.certificate.m + " time 0 atom -1");
+      for (int i = 0; i < warm.certificate.m; i++) {
+        certFile.addLine(i + " "+ warm.certificate.components[i]);
+      }
+      certFile.close();
+    }
     
-    Minor baseMinor = acsd.minorForAtom(aa[0]);
-    
-    LBThread lbThread = new LBThread(baseMinor, shared, certFile);
-    lbThread.start();
+    // the lower bounds are computed for the atoms of the largest upper bounds,
+    // the larger atom first among the ties
+    Integer[] byUB = new Integer[aa.length];
+    for (int i = 0; i < aa.length; i++) {
+      byUB[i] = i;
+    }
+    Arrays.sort(byUB, (i, j) -> localUB[j].getUB() - localUB[i].getUB());
+    Shared[] atomShared = new Shared[aa.length];
+    LBThread[] lbThreads = new LBThread[aa.length];
+    int resumedLB = 0;
+    for (int k = 0; k < Math.min(lbAtoms, aa.length); k++) {
+      int i = byUB[k];
+      atomShared[i] = new Shared(localUB[i].getUB(), 1, shared.getT0());
+      Minor baseMinor = acsd.minorForAtom(aa[i]);
+      lbThreads[i] = new LBThread(baseMinor, shared, atomShared[i], i, certFile);
+      int ks = snapshot == null ? -1 : snapshot.indexOf(aa[i]);
+      Minor obs = ks < 0 ? null : snapshot.getObstruction(ks, baseMinor.getGraph());
+      if (obs != null) {
+        lbThreads[i].resumeFrom(obs, snapshot.getObstructionLB(ks));
+        System.out.println("resume: lower bound of atom " + i + " from " + 
+            snapshot.getObstructionLB(ks));
+        resumedLB = Math.max(resumedLB, snapshot.getObstructionLB(ks));
+      }
+      lbThreads[i].start();
+    }
+    if (snapshot != null) {
+      System.out.println("resume: lower bound " + resumedLB + 
+          " from the obstructions, " + snapshot.lb + " in the snapshot");
+    }
+
+    Checkpoint checkpoint = null;
+    if (checkpointPath != null) {
+      checkpoint = new Checkpoint(new File(checkpointPath), g, aa, localUB, 
+          shared, lbThreads);
+      checkpoint.start(checkpointMillis);
+    }
     
-    while (shared.getLB() < shared.getUB()) {
-      System.out.println(shared.getLB() + ":" + shared.getUB() + ", " + ub);
-      iMax = maxUBIndex(localUB);
-      int oldUB = localUB[iMax].getUB();
-      localUB[iMax].improveUB();
-      if (localUB[iMax].getUB() < oldUB) {
-        t = System.currentTimeMillis();
-        System.out.println("improved at " + iMax + ": " + localUB[iMax].getUB() + 
-            ", " + (t - shared.getT0()) + " millisecs");
-      }
-      iMax = maxUBIndex(localUB);
-      if (localUB[iMax].getUB() < ub) {
-        ub = localUB[iMax].getUB();
-        shared.setUB(ub);
-        tr = g.copy();
-        for (LocalUBNew lub: localUB) {
-          lub.fillTriangulation(tr);
+    if (threads <= 1) {
+      while (shared.getLB() < shared.getUB()) {
+        System.out.println(shared.getLB() + ":" + shared.getUB() + ", " + ub);
+        iMax = maxUBIndex(localUB);
+        int oldUB = localUB[iMax].getUB();
+        localUB[iMax].improveUB();
+        if (localUB[iMax].getUB() < oldUB) {
+          t = System.currentTimeMillis();
+          System.out.println("improved at " + iMax + ": " + localUB[iMax].getUB() + 
+              ", " + (t - shared.getT0()) + " millisecs");
+        }
+        iMax = maxUBIndex(localUB);
+        if (localUB[iMax].getUB() < ub) {
+          ub = localUB[iMax].getUB();
+          shared.lowerUB(ub);
+          int w = writeTD(g, assembler, graphPath, tdPath, shared);
+          assert w == ub;
+        }
+        updateAtomUBs(localUB, atomShared);
+      }
+    }
+    else {
+      AtomScheduler scheduler = new AtomScheduler(localUB, shared, threads);
+      int[] lastUB = new int[localUB.length];
+      for (int i = 0; i < localUB.length; i++) {
+        lastUB[i] = localUB[i].getUB();
+      }
+      while (shared.getLB() < shared.getUB()) {
+        System.out.println(shared.getLB() + ":" + shared.getUB() + ", " + ub);
+        scheduler.dispatch();
+        int i = scheduler.awaitCompletion();
+        if (i < 0) {
+          // no atom is left to work on: those above the lower bound are
+          // all solved by their minimum degree
+          raiseLBByOptimalAtom(acsd, aa, localUB, shared, certFile);
+          continue;
         }
-        
-        td = Chordal.chordalToTD(tr);
-        td.g = g;
-        t = System.currentTimeMillis();
-        assert td.width == ub;
-        tdFile = new ResultFile(tdPath);
-        tdFile.addLine("c graph_path " + graphPath);
-        tdFile.addLine("c n " + g.n + " width " + ub + " time " + (t - shared.getT0()));
-        tdFile.addLine("s td " + td.nb + " " + (td.width + 1) + " " + g.n);
-        for (int b = 1; b <= td.nb; b++) {
-          tdFile.addLine("b " + b + vaToString(td.bags[b]));
+        if (localUB[i].getUB() < lastUB[i]) {
+          lastUB[i] = localUB[i].getUB();
+          t = System.currentTimeMillis();
+          System.out.println("improved at " + i + ": " + lastUB[i] + 
+              ", " + (t - shared.getT0()) + " millisecs");
         }
-        for (int b = 1; b <= td.nb; b++) {
-          for (int b1: td.neighbor[b]) {
-            if (b1 > b) {
-              tdFile.addLine(b + " " + b1);
-            }
-          }
+        iMax = maxUBIndex(localUB);
+        if (localUB[iMax].getUB() < ub) {
+          // other atoms may have improved in the meantime: the width
+          // of what is written is the new upper bound
+          ub = writeTD(g, assembler, graphPath, tdPath, shared);
+          shared.lowerUB(ub);
         }
-        tdFile.close();
+        updateAtomUBs(localUB, atomShared);
       }
+      scheduler.shutdown();
     }
     shared.setStop(true);
+    for (Shared s: atomShared) {
+      if (s != null) {
+        s.setStop(true);
+      }
+    }
+    if (checkpoint != null) {
+      checkpoint.stop();
+      checkpoint.write();
+      System.out.println(checkpoint);
+    }
+    System.out.println(TWCache.getInstance());
+    for (int i = 0; i < localUB.length; i++) {
+      String stats = localUB[i].poolStats();
+      if (!stats.isEmpty()) {
+        System.out.print("pmc pool of atom " + i + "\n" + stats);
+        System.out.println(localUB[i].focusCacheStats());
+      }
+    }
+    System.out.println(PMCBudget.getInstance());
+    if (MinSepsStore.getDefault() != null) {
+      System.out.println(MinSepsStore.getDefault());
+    }
+    ResultPublisher.getInstance().flush();
+    System.out.println(ResultPublisher.getInstance());
+  }
+
+  static void updateAtomUBs(LocalUBNew[] localUB, Shared[] atomShared) {
+    for (int i = 0; i < localUB.length; i++) {
+      if (atomShared[i] != null) {
+        atomShared[i].lowerUB(localUB[i].getUB());
+      }
+    }
+  }
+
+  /**
+   * Writes the tree-decomposition assembled from the decompositions
+   * of the atoms, of which only those of the improved atoms are recomputed
+   * @return the width of the tree-decomposition
+   */
+  static int writeTD(Graph g, TDAssembler assembler, String graphPath, 
+      String tdPath, Shared shared) {
+    TreeDecomposition td = assembler.assemble();
+    long t = System.currentTimeMillis();
+    ResultFile tdFile = new ResultFile(tdPath);
+    tdFile.addLine("c graph_path " + graphPath);
+    tdFile.addLine("c n " + g.n + " width " + td.width + " time " + (t - shared.getT0()));
+    tdFile.addLine("s td " + td.nb + " " + (td.width + 1) + " " + g.n);
+    for (int b = 1; b <= td.nb; b++) {
+      tdFile.addLine("b " + b + vaToString(td.bags[b]));
+    }
+    for (int b = 1; b <= td.nb; b++) {
+      for (int b1: td.neighbor[b]) {
+        if (b1 > b) {
+          tdFile.addLine(b + " " + b1);
+        }
+      }
+    }
+    tdFile.close();
+    return td.width;
   }
 
   static String vaToString(int[] va) {
@@ -156,6 +319,40 @@ public class UpLow {
     return sb.toString();
   }
   
+  /**
+   * Raises the lower bound to the upper bound of the atom of the largest
+   * upper bound among those solved by their minimum degree, writing the
+   * minor of the atom as the certificate: the graph of the atom, with its
+   * separators filled, is a minor of the whole graph
+   */
+  static void raiseLBByOptimalAtom(ACSDecomposition acsd, XBitSet[] aa, 
+      LocalUBNew[] localUB, Shared shared, ResultFile certFile) {
+    int iMax = -1;
+    for (int i = 0; i < localUB.length; i++) {
+      if (localUB[i].isOptimal() && localUB[i].getUB() > shared.getLB() && 
+          (iMax < 0 || localUB[i].getUB() > localUB[iMax].getUB())) {
+        iMax = i;
+      }
+    }
+    assert iMax >= 0;
+    int lb = localUB[iMax].getUB();
+    if (!shared.raiseLB(lb)) {
+      return;
+    }
+    long t = System.currentTimeMillis();
+    System.out.println("lowerbound by the minimum degree of atom " + iMax + 
+        ": " + lb + ", " + (t - shared.getT0()) + " millisecs");
+    Minor cert = acsd.minorForAtom(aa[iMax]);
+    synchronized (certFile) {
+      certFile.addLine("certificate width " + lb + " n " + cert.m + 
+          " time " + (t - shared.getT0()) + " atom " + iMax);
+      for (int i = 0; i < cert.m; i++) {
+        certFile.addLine(i + " "+ cert.components[i]);
+      }
+      certFile.close();
+    }
+  }
+
   static int maxUBIndex(LocalUBNew[] localUB) {
     int iMax = 0;
     for (int i = 1; i < localUB.length; i++) {
@@ -182,6 +379,57 @@ public class UpLow {
       };
     }
     assert args.length >= 3;
+    for (int i = 3; i < args.length; i++) {
+      if (args[i].equals("-cache") && i + 1 < args.length) {
+        MinSepsStore.setDefault(new MinSepsStore(new File(args[++i]), 
+            MinSepsStore.DEFAULT_MAX_BYTES));
+      }
+      else if (args[i].equals("-threads") && i + 1 < args.length) {
+        threads = Integer.parseInt(args[++i]);
+      }
+      else if (args[i].equals("-warm-td") && i + 1 < args.length) {
+        warmTDPath = args[++i];
+      }
+      else if (args[i].equals("-warm-mnr") && i + 1 < args.length) {
+        warmCertPath = args[++i];
+      }
+      else if (args[i].equals("-checkpoint") && i + 1 < args.length) {
+        checkpointPath = args[++i];
+      }
+      else if (args[i].equals("-checkpoint-interval") && i + 1 < args.length) {
+        checkpointMillis = Long.parseLong(args[++i]) * 1000;
+      }
+      else if (args[i].equals("-resume") && i + 1 < args.length) {
+        resumePath = args[++i];
+      }
+      else if (args[i].equals("-lb-atoms") && i + 1 < args.length) {
+        lbAtoms = Integer.parseInt(args[++i]);
+      }
+      else if (args[i].equals("-portfolio") && i + 1 < args.length) {
+        LocalUBNew.PORTFOLIO = Integer.parseInt(args[++i]);
+      }
+      else if (args[i].equals("-focus-threads") && i + 1 < args.length) {
+        HBTMerge.FOCUS_THREADS = Integer.parseInt(args[++i]);
+      }
+      else if (args[i].equals("-pmc-budget") && i + 1 < args.length) {
+        HBTMerge.POOL_BYTES = Long.parseLong(args[++i]) << 20;
+      }
+      else if (args[i].equals("-initial-threads") && i + 1 < args.length) {
+        HBTMerge.INITIAL_THREADS = Integer.parseInt(args[++i]);
+      }
+      else if (args[i].equals("-initial-millis") && i + 1 < args.length) {
+        HBTMerge.INITIAL_MILLIS = Long.parseLong(args[++i]);
+      }
+      else if (args[i].equals("-root-search-threads") && i + 1 < args.length) {
+        SemiPID.ROOT_SEARCH_THREADS = Integer.parseInt(args[++i]);
+      }
+      else if (args[i].equals("-minseps-parallelism") && i + 1 < args.length) {
+        MinSepsGenerator.PARALLELISM = Integer.parseInt(args[++i]);
+      }
+      else if (args[i].equals("-streaming")) {
+        SemiPID.STREAMING = true;
+      }
+    }
     solve(args[0], args[1], args[2]);
   }
 }
@@ -0,0 +1,159 @@
+package io.github.twalgor.main;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import io.github.twalgor.common.Graph;
+import io.github.twalgor.common.Minor;
+import io.github.twalgor.common.TreeDecomposition;
+import io.github.twalgor.common.XBitSet;
+import io.github.twalgor.decomposer.SemiPID;
+
+/**
+ * Reads the results of a previous run, a tree-decomposition in the .td
+ * format and lower bound certificates in the .mnr format, to start from
+ * the bounds already established.
+ * Neither is trusted: a tree-decomposition is used only if filling its
+ * bags into the graph yields a chordal graph, and a certificate only if
+ * its components are disjoint connected vertex sets and the minor they
+ * define is verified to have the claimed treewidth.
+ */
+public class WarmStart {
+  Graph g;
+  // the triangulation given by the tree-decomposition
+  public Graph triangulation;
+  // the certificate of the largest width verified
+  public Minor certificate;
+  public int certificateWidth;
+
+  public WarmStart(Graph g) {
+    this.g = g;
+  }
+
+  /**
+   * Reads a tree-decomposition and turns it into a triangulation of
+   * the graph, {@code triangulation}, by filling each bag into a clique;
+   * it is left {@code null} if the file cannot be read or does not give
+   * a triangulation of the graph
+   * @param tdPath the path to the .td file
+   */
+  public void readTriangulation(String tdPath) {
+    File file = new File(tdPath);
+    String name = file.getName();
+    if (!file.exists() || !name.endsWith(".td")) {
+      System.out.println("warm start: no tree-decomposition " + tdPath);
+      return;
+    }
+    TreeDecomposition td;
+    try {
+      td = TreeDecomposition.readDecomposition(
+          file.getAbsoluteFile().getParent(),
+          name.substring(0, name.length() - 3), g);
+    } catch (RuntimeException e) {
+      td = null;
+    }
+    if (td == null) {
+      System.out.println("warm start: unreadable tree-decomposition " + tdPath);
+      return;
+    }
+    Graph tr = g.copy();
+    for (int b = 1; b <= td.nb; b++) {
+      for (int v: td.bags[b]) {
+        if (v < 0 || v >= g.n) {
+          System.out.println("warm start: tree-decomposition of another graph " + tdPath);
+          return;
+        }
+      }
+      tr.fill(td.bags[b]);
+    }
+    if (!tr.isChordal()) {
+      System.out.println("warm start: invalid tree-decomposition " + tdPath);
+      return;
+    }
+    triangulation = tr;
+  }
+
+  /**
+   * Reads the certificates and sets {@code certificate} to the one of
+   * the largest width that is verified.
+   * All the certificates are read first, and then verified from the
+   * widest down, so that the exact check is run only until one passes
+   * @param certPath the path to the .mnr file
+   */
+  public void readCertificate(String certPath) {
+    ArrayList<XBitSet[]> read = new ArrayList<>();
+    ArrayList<Integer> widths = new ArrayList<>();
+    try (BufferedReader br = new BufferedReader(new FileReader(certPath))) {
+      String line;
+      outer:
+      while ((line = br.readLine()) != null) {
+        if (!line.startsWith("certificate ")) {
+          continue;
+        }
+        String[] s = line.split(" ");
+        int width = Integer.parseInt(s[2]);
+        int m = Integer.parseInt(s[4]);
+        XBitSet[] components = new XBitSet[m];
+        for (int i = 0; i < m; i++) {
+          String cline = br.readLine();
+          if (cline == null) {
+            // a truncated last certificate
+            break outer;
+          }
+          components[i] = XBitSet.fromString(cline.substring(cline.indexOf('{')));
+        }
+        read.add(components);
+        widths.add(width);
+      }
+    } catch (IOException | RuntimeException e) {
+      System.out.println("warm start: unreadable certificates " + certPath);
+    }
+    Integer[] order = new Integer[read.size()];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    // the widest first, the later first among the ties
+    Arrays.sort(order, (i, j) -> widths.get(i).equals(widths.get(j)) ? 
+        j - i : widths.get(j) - widths.get(i));
+    for (int i: order) {
+      XBitSet[] components = read.get(i);
+      int width = widths.get(i);
+      if (isMinor(g, components) && verify(new Minor(g, components), width)) {
+        certificate = new Minor(g, components);
+        certificateWidth = width;
+        return;
+      }
+      System.out.println("warm start: certificate of width " + width + 
+          " not verified");
+    }
+  }
+
+  /**
+   * @return {@code true} if the components are nonempty, pairwise disjoint
+   * and connected vertex sets of {@code g}, defining a minor of it
+   */
+  static boolean isMinor(Graph g, XBitSet[] components) {
+    XBitSet union = new XBitSet(g.n);
+    for (XBitSet compo: components) {
+      if (compo.isEmpty() || compo.length() > g.n ||
+          compo.intersects(union) || !g.isConnected(compo)) {
+        return false;
+      }
+      union.or(compo);
+    }
+    return true;
+  }
+
+  /**
+   * @return {@code true} if the treewidth of the minor is at least
+   * {@code width}
+   */
+  static boolean verify(Minor minor, int width) {
+    return width <= 0 ||
+        !new SemiPID(minor.getGraph(), width - 1, false).isFeasible();
+  }
+}
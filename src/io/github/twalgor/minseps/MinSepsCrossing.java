@@ -8,9 +8,17 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashSet;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import io.github.twalgor.common.CompactXBitSetSet;
 import io.github.twalgor.common.Graph;
 import io.github.twalgor.common.XBitSet;
 import io.github.twalgor.log.Log;
@@ -25,32 +33,143 @@ public class MinSepsCrossing {
   private static int xmasRatio = 10;
   private static File dataFile;
   private static Log log;
+  // shared by all instances; each generation occupies at most nThreads of its threads
+  private static ExecutorService pool;
   Graph g;
   int width;
 
-  public HashSet<XBitSet> minimalSeparators;
+  public Set<XBitSet> minimalSeparators;
   int maxNSeps;
-  int a, b;
-  XBitSet aExcluded;
-  XBitSet bExcluded;
+  int keepBest;
+  // with keepBest, the separators kept, the lowest ranked on top
+  PriorityQueue<Ranked> lowestFirst;
   XBitSet toCross;
+
+  int nThreads = 1;
+  long timeBudget;
+  long deadline;
+  AtomicInteger nFound;
+  volatile boolean stop;
+  Integer[] bCandidate;
+  int nextB;
+  AtomicInteger nextShared;
+  Crossing crossing;
   
   public MinSepsCrossing(Graph g, int width) {
     this.g = g;
     this.width = width;
   }
   
+  /**
+   * Bounds the number of separators found: the generation stops, on all
+   * threads, as soon as the bound is reached
+   * @param m the maximum number of separators; 0 for no bound
+   */
   public void setMaxNSeps(int m) {
     maxNSeps = m;
   }
+
+  /**
+   * Bounds the number of separators kept, without stopping the generation:
+   * when the bound is reached, a separator found afterwards replaces the
+   * lowest ranked one kept, if it is ranked higher in the order of
+   * {@code rankedSeparators}
+   * @param k the number of separators kept; 0 for keeping all
+   */
+  public void setKeepBest(int k) {
+    keepBest = k;
+  }
+
+  /**
+   * Sets the number of threads over which the candidates for {@code b}
+   * are distributed
+   * @param nThreads the number of threads; 1 for the sequential generation
+   */
+  public void setThreads(int nThreads) {
+    this.nThreads = nThreads;
+  }
+
+  /**
+   * Sets the wall-clock budget of each {@code generateCrossing} call
+   * @param millis the budget in milliseconds; 0 for no budget
+   */
+  public void setTimeBudget(long millis) {
+    timeBudget = millis;
+  }
+
+  /**
+   * Asks a running generation to stop as soon as possible
+   */
+  public void stop() {
+    stop = true;
+  }
+
   public void generateCrossing(XBitSet toCross) {
+    startCrossing(toCross);
+    // the generation for each b does not depend on the other b's
+    if (nThreads <= 1) {
+      resume(Long.MAX_VALUE);
+      return;
+    }
+
+    nextShared = new AtomicInteger();
+    ArrayList<Future<?>> futures = new ArrayList<>();
+    for (int i = 0; i < nThreads; i++) {
+      futures.add(pool().submit(() -> {
+        int j;
+        while (!stopped() && (j = nextShared.getAndIncrement()) < bCandidate.length) {
+          new Crossing(bCandidate[j]).generate();
+        }
+      }));
+    }
+    try {
+      for (Future<?> future: futures) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      stop = true;
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    }
+    nextB = bCandidate.length;
+  }
+
+  static synchronized ExecutorService pool() {
+    if (pool == null) {
+      pool = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "MinSepsCrossing");
+        t.setDaemon(true);
+        return t;
+      });
+    }
+    return pool;
+  }
+
+  /**
+   * Prepares a sequential generation to be driven by {@code resume},
+   * which may be suspended and continued any number of times
+   * @param toCross the set of vertices to be crossed
+   */
+  public void startCrossing(XBitSet toCross) {
     if (VERBOSE) {
       System.out.println("generateCrossing: " + toCross);
     }
     this.toCross = toCross;
-    minimalSeparators = new HashSet<>();
+    if (keepBest == 0) {
+      minimalSeparators = new CompactXBitSetSet(g.n);
+      lowestFirst = null;
+    }
+    else {
+      // CompactXBitSetSet does not support removal
+      minimalSeparators = new HashSet<>();
+      lowestFirst = new PriorityQueue<>(keepBest, rankComparator.reversed());
+    }
+    nFound = new AtomicInteger();
+    stop = false;
+    deadline = timeBudget > 0 ? System.nanoTime() + timeBudget * 1000000 : 0;
 
-    Integer[] bCandidate = new Integer[toCross.cardinality()];
+    bCandidate = new Integer[toCross.cardinality()];
     {
       int i = 0;
       for (int v = toCross.nextSetBit(0); v >= 0; v = toCross.nextSetBit(v + 1)) {
@@ -61,24 +180,148 @@ public class MinSepsCrossing {
     Arrays.sort(bCandidate, (u, v) -> 
      - g.neighborSet[u].intersectWith(toCross).cardinality()  
      + g.neighborSet[v].intersectWith(toCross).cardinality());
-    
-    bExcluded = new XBitSet(g.n);
-    
-    for (int i = 0; i < bCandidate.length; i++) {
-      if (maxNSeps != 0 && minimalSeparators.size() >= maxNSeps) {
+    nextB = 0;
+    crossing = null;
+  }
+
+  /**
+   * Continues the sequential generation prepared by {@code startCrossing}
+   * @param maxSteps the maximum number of branching steps to be taken
+   * @return {@code true} if the generation is complete
+   */
+  public boolean resume(long maxSteps) {
+    while (maxSteps > 0) {
+      if (crossing == null) {
+        if (nextB == bCandidate.length || stopped()) {
+          return true;
+        }
+        crossing = new Crossing(bCandidate[nextB++]);
+      }
+      maxSteps -= crossing.run(maxSteps);
+      if (crossing.isDone()) {
+        crossing = null;
+      }
+    }
+    return crossing == null && (nextB == bCandidate.length || stopped());
+  }
+
+  boolean stopped() {
+    return stop || 
+        maxNSeps != 0 && nFound.get() >= maxNSeps ||
+        deadline != 0 && System.nanoTime() > deadline;
+  }
+
+  /**
+   * Adds a separator found, unless the cap on the number of separators
+   * has been reached by other threads in the meantime
+   * @param sep the separator
+   */
+  void addSeparator(XBitSet sep) {
+    if (lowestFirst == null) {
+      synchronized (minimalSeparators) {
+        if (maxNSeps != 0 && nFound.get() >= maxNSeps) {
+          return;
+        }
+        if (minimalSeparators.add((XBitSet) sep.clone())) {
+          nFound.incrementAndGet();
+        }
+      }
+      return;
+    }
+    Ranked r = new Ranked((XBitSet) sep.clone(), missingEdges(sep));
+    synchronized (minimalSeparators) {
+      if (maxNSeps != 0 && nFound.get() >= maxNSeps) {
         return;
       }
-      b = bCandidate[i];
+      if (minimalSeparators.contains(r.sep)) {
+        return;
+      }
+      // a separator dropped and found again is counted again
+      nFound.incrementAndGet();
+      if (lowestFirst.size() == keepBest) {
+        // a separator once dropped ranks below the lowest kept, so it
+        // is not taken back when found again
+        if (rankComparator.compare(r, lowestFirst.peek()) >= 0) {
+          return;
+        }
+        minimalSeparators.remove(lowestFirst.poll().sep);
+      }
+      minimalSeparators.add(r.sep);
+      lowestFirst.add(r);
+    }
+  }
+
+  /**
+   * Lists the generated separators, those closest to cliques first.
+   * A separator is ranked by the number of its missing edges, ties broken
+   * by the cardinality and then by the descending order of the vertex sets
+   * @return the list of the separators
+   */
+  public ArrayList<XBitSet> rankedSeparators() {
+    ArrayList<Ranked> ranked = new ArrayList<>();
+    for (XBitSet sep: minimalSeparators) {
+      ranked.add(new Ranked(sep, missingEdges(sep)));
+    }
+    ranked.sort(rankComparator);
+    ArrayList<XBitSet> result = new ArrayList<>(ranked.size());
+    for (Ranked r: ranked) {
+      result.add(r.sep);
+    }
+    return result;
+  }
+
+  static final Comparator<Ranked> rankComparator = (r1, r2) -> {
+    if (r1.missing != r2.missing) {
+      return r1.missing - r2.missing;
+    }
+    return XBitSet.cardinalityComparator.compare(r1.sep, r2.sep);
+  };
+
+  static class Ranked {
+    XBitSet sep;
+    int missing;
+
+    Ranked(XBitSet sep, int missing) {
+      this.sep = sep;
+      this.missing = missing;
+    }
+  }
+
+  int missingEdges(XBitSet sep) {
+    int count = 0;
+    for (int v = sep.nextSetBit(0); v >= 0; v = sep.nextSetBit(v + 1)) {
+      count += sep.cardinality() - 1 - g.neighborSet[v].intersectWith(sep).cardinality();
+    }
+    return count / 2;
+  }
+
+  /**
+   * The generation for a single vertex {@code b}, with its own
+   * {@code a} and {@code aExcluded} so that generations for different
+   * {@code b}'s can run concurrently.
+   * The branching runs on an explicit stack of recycled frames, so that
+   * the generation can be suspended after any number of steps.
+   */
+  class Crossing {
+    int a, b;
+    XBitSet aExcluded;
+    Integer[] aCandidate;
+    int nextA;
+    ArrayList<Frame> stack;
+    ArrayList<Frame> free;
+
+    Crossing(int b) {
+      this.b = b;
       if (VERBOSE) {
         System.out.println("b = " + b + ", " + 
-            minimalSeparators.size() + " minimal separators so");
+            nFound.get() + " minimal separators so");
       }
 
       aExcluded = new XBitSet(g.n);
       aExcluded.set(b);
       aExcluded.or(g.neighborSet[b]);
 
-      Integer[] aCandidate = new Integer[toCross.subtract(aExcluded).cardinality()];
+      aCandidate = new Integer[toCross.subtract(aExcluded).cardinality()];
       {
         int j = 0;
         for (int v = toCross.nextSetBit(0); v >= 0; v = toCross.nextSetBit(v + 1)) {
@@ -92,229 +335,279 @@ public class MinSepsCrossing {
       - g.neighborSet[u].intersectWith(aExcluded).cardinality()  
       + g.neighborSet[v].intersectWith(aExcluded).cardinality());
 
-      for (int j = 0; j < aCandidate.length; j++) {
-        if (maxNSeps != 0 && minimalSeparators.size() >= maxNSeps) {
-          return;
-        }
+      stack = new ArrayList<>();
+      free = new ArrayList<>();
+    }
+
+    void generate() {
+      run(Long.MAX_VALUE);
+    }
+
+    boolean isDone() {
+      return stack.isEmpty() && nextA == aCandidate.length;
+    }
 
-        a = aCandidate[j];
+    /**
+     * Continues the generation
+     * @param maxSteps the maximum number of frames to be expanded
+     * @return the number of frames expanded
+     */
+    long run(long maxSteps) {
+      long steps = 0;
+      while (steps < maxSteps) {
+        if (stopped()) {
+          stack.clear();
+          nextA = aCandidate.length;
+          break;
+        }
+        if (stack.isEmpty()) {
+          if (nextA > 0) {
+            aExcluded.set(a);
+          }
+          if (nextA == aCandidate.length) {
+            break;
+          }
+          a = aCandidate[nextA++];
 
-        XBitSet aFixed = new XBitSet(new int[]{a});
-        
-        XBitSet sFixed = g.neighborSet(aFixed).intersectWith(aExcluded);
-//        we should be careful in utilizing the vertices fixed in S on b side
-//        sFixed.or(g.neighborSet[b].intersectWith(bExcluded));
+          XBitSet aFixed = new XBitSet(new int[]{a});
+          
+          XBitSet sFixed = g.neighborSet(aFixed).intersectWith(aExcluded);
+//          we should be careful in utilizing the vertices fixed in S on b side
+//          sFixed.or(g.neighborSet[b].intersectWith(bExcluded));
 
-        branch(aFixed, sFixed, "");
-        aExcluded.set(a);
+          push(aFixed, sFixed, 0);
+        }
+        Frame f = stack.remove(stack.size() - 1);
+        XBitSet aFixed = f.aFixed;
+        XBitSet sFixed = f.sFixed;
+        int depth = f.depth;
+        f.aFixed = f.sFixed = null;
+        free.add(f);
+        branch(aFixed, sFixed, depth);
+        steps++;
       }
-      bExcluded.set(b);
-    }
-  }
-  
-  private void branch(XBitSet aFixed, XBitSet sFixed, String indent) {
-    if (maxNSeps != 0 && minimalSeparators.size() >= maxNSeps) {
-      return;
-    }
-    if (DEBUG) {
-      System.out.println(indent + "branch:" + aFixed + ", " + sFixed);
+      return steps;
     }
 
-    XBitSet aCompoNeighbors = g.neighborSet(aFixed);
-    
-    if (aCompoNeighbors.intersects(aExcluded)) {
-      sFixed = sFixed.unionWith(aCompoNeighbors.intersectWith(aExcluded));
+    void push(XBitSet aFixed, XBitSet sFixed, int depth) {
+      Frame f = free.isEmpty() ? new Frame() : free.remove(free.size() - 1);
+      f.aFixed = aFixed;
+      f.sFixed = sFixed;
+      f.depth = depth;
+      stack.add(f);
     }
-    XBitSet toDecide = aCompoNeighbors.subtract(sFixed);
 
-    if (DEBUG) {
-      System.out.println(indent + "branching");
-      System.out.println(indent + " aFixed " + aFixed);
-      System.out.println(indent + " sFixed " + sFixed);
-      System.out.println(indent + " toDecide: " + toDecide);
-    }
-    
-    if (sFixed.cardinality() > width) {
+    void branch(XBitSet aFixed, XBitSet sFixed, int level) {
       if (DEBUG) {
-        System.out.println(indent + "returning null: sFixed > " + width);
+        System.out.println(indent(level) + "branch:" + aFixed + ", " + sFixed);
       }
-      return;
-    }
-    
-    
-    XBitSet external = g.all.subtract(aFixed);
-    external.andNot(aCompoNeighbors);
-    XBitSet internal = toDecide.subtract(g.neighborSet(external));
-    
-    if (!internal.isEmpty()) {
-      aFixed = aFixed.unionWith(internal);
-      aCompoNeighbors.andNot(internal);
-      toDecide.andNot(internal);
-    }
-    
-    assert aCompoNeighbors.equals(g.neighborSet(aFixed));
-    assert aCompoNeighbors.equals(sFixed.unionWith(toDecide));
-    
-    ArrayList<XBitSet> components = 
-        g.separatedComponents(aFixed.unionWith(aCompoNeighbors));
-    
-    if (components.size() >= 2) {
-      XBitSet bCompo = null;
-      for (XBitSet compo: components) {
-        if (compo.get(b)) {
-          bCompo = compo;
-        }
+
+      XBitSet aCompoNeighbors = g.neighborSet(aFixed);
+
+      if (aCompoNeighbors.intersects(aExcluded)) {
+        sFixed = sFixed.unionWith(aCompoNeighbors.intersectWith(aExcluded));
       }
-      if (bCompo == null) {
-        System.out.println("b = " + b + ", aFixed = " + aFixed + ", sFixed = " + sFixed + ", toDecide = " + toDecide);
+      XBitSet toDecide = aCompoNeighbors.subtract(sFixed);
+
+      if (DEBUG) {
+        System.out.println(indent(level) + "branching");
+        System.out.println(indent(level) + " aFixed " + aFixed);
+        System.out.println(indent(level) + " sFixed " + sFixed);
+        System.out.println(indent(level) + " toDecide: " + toDecide);
       }
-      assert bCompo!= null;
-      XBitSet bCompoNeighbors = g.neighborSet(bCompo);
-      if (!sFixed.isSubset(bCompoNeighbors)) {
+
+      if (sFixed.cardinality() > width) {
         if (DEBUG) {
-          System.out.println(indent + "bCompo not adjacent with some vertex in sFixed");
+          System.out.println(indent(level) + "returning null: sFixed > " + width);
         }
         return;
       }
-      ArrayList<XBitSet> compos = g.separatedComponents(bCompoNeighbors);
-      for (XBitSet compo: compos) {
-        if (compo.get(a)) {
-          aFixed = compo;
-        }
-      }
 
-      aCompoNeighbors = g.neighborSet(aFixed);
-      toDecide = aCompoNeighbors.subtract(sFixed);
-      external = g.all.subtract(aFixed);
+
+      XBitSet external = g.all.subtract(aFixed);
       external.andNot(aCompoNeighbors);
-      internal = toDecide.subtract(g.neighborSet(external));
-        
+      XBitSet internal = toDecide.subtract(g.neighborSet(external));
+
       if (!internal.isEmpty()) {
         aFixed = aFixed.unionWith(internal);
+        aCompoNeighbors.andNot(internal);
         toDecide.andNot(internal);
       }
-    }
-    
-    int nd = toDecide.cardinality();
-    int nc = aFixed.cardinality();
-    int ns = sFixed.cardinality();
 
-    if (ns > width) {
-      if (DEBUG) {
-        System.out.println(indent + "ns exceeds width");
+      assert aCompoNeighbors.equals(g.neighborSet(aFixed));
+      assert aCompoNeighbors.equals(sFixed.unionWith(toDecide));
+
+      ArrayList<XBitSet> components = 
+          g.separatedComponents(aFixed.unionWith(aCompoNeighbors));
+
+      if (components.size() >= 2) {
+        XBitSet bCompo = null;
+        for (XBitSet compo: components) {
+          if (compo.get(b)) {
+            bCompo = compo;
+          }
+        }
+        if (bCompo == null) {
+          System.out.println("b = " + b + ", aFixed = " + aFixed + ", sFixed = " + sFixed + ", toDecide = " + toDecide);
+        }
+        assert bCompo!= null;
+        XBitSet bCompoNeighbors = g.neighborSet(bCompo);
+        if (!sFixed.isSubset(bCompoNeighbors)) {
+          if (DEBUG) {
+            System.out.println(indent(level) + "bCompo not adjacent with some vertex in sFixed");
+          }
+          return;
+        }
+        ArrayList<XBitSet> compos = g.separatedComponents(bCompoNeighbors);
+        for (XBitSet compo: compos) {
+          if (compo.get(a)) {
+            aFixed = compo;
+          }
+        }
+
+        aCompoNeighbors = g.neighborSet(aFixed);
+        toDecide = aCompoNeighbors.subtract(sFixed);
+        external = g.all.subtract(aFixed);
+        external.andNot(aCompoNeighbors);
+        internal = toDecide.subtract(g.neighborSet(external));
+
+        if (!internal.isEmpty()) {
+          aFixed = aFixed.unionWith(internal);
+          toDecide.andNot(internal);
+        }
       }
-      return;
-    }
-    
-    if (ns == width) {
-      if (isMinimalSeparator(sFixed)) {
+
+      int nd = toDecide.cardinality();
+      int nc = aFixed.cardinality();
+      int ns = sFixed.cardinality();
+
+      if (ns > width) {
         if (DEBUG) {
-          System.out.println(indent + "minimal Separator found: " + sFixed);
+          System.out.println(indent(level) + "ns exceeds width");
         }
-        minimalSeparators.add((XBitSet) sFixed.clone());
+        return;
       }
-      return;
-    }
-    
-    if (nd == 0) {
-      if (DEBUG) {
-        System.out.println(indent + "no neihbor vertex to decide");
+
+      if (ns == width) {
+        if (isMinimalSeparator(sFixed)) {
+          if (DEBUG) {
+            System.out.println(indent(level) + "minimal Separator found: " + sFixed);
+          }
+          addSeparator(sFixed);
+        }
+        return;
       }
-//      assert isMinimalSeparator(sFixed);
-      if (isMinimalSeparator(sFixed)) {
-        minimalSeparators.add((XBitSet) sFixed.clone());
+
+      if (nd == 0) {
+        if (DEBUG) {
+          System.out.println(indent(level) + "no neihbor vertex to decide");
+        }
+  //      assert isMinimalSeparator(sFixed);
+        if (isMinimalSeparator(sFixed)) {
+          addSeparator(sFixed);
+        }
+        return;
       }
-      return;
-    }
 
-    if ((nd > (width - ns) && 
-        (nc + (nd - (width - ns)) * xmasRatio) * 2 + width > g.n)) {
-      // xmas check with vertex disjoint paths
-      XBitSet rest = g.all.subtract(aFixed);
-      rest.clear(b);
-      rest.andNot(sFixed);
-      rest.andNot(toDecide);
-      XBitSet reached = (XBitSet) toDecide.clone();
-      XBitSet frontier = (XBitSet) reached.clone();
-
-      int depth = 1;
-      assert width > ns;
-      while (true) {
-        XBitSet newFrontier = new XBitSet(g.n);
-        for (int v = frontier.nextSetBit(0); v >= 0; v = frontier.nextSetBit(v + 1)) {
-          XBitSet nb = g.neighborSet[v].intersectWith(rest);
-          if (!nb.isEmpty()) {
-            int w = nb.nextSetBit(0);
-            newFrontier.set(w);
-            rest.clear(w);
+      if ((nd > (width - ns) && 
+          (nc + (nd - (width - ns)) * xmasRatio) * 2 + width > g.n)) {
+        // xmas check with vertex disjoint paths
+        XBitSet rest = g.all.subtract(aFixed);
+        rest.clear(b);
+        rest.andNot(sFixed);
+        rest.andNot(toDecide);
+        XBitSet reached = (XBitSet) toDecide.clone();
+        XBitSet frontier = (XBitSet) reached.clone();
+
+        int depth = 1;
+        assert width > ns;
+        while (true) {
+          XBitSet newFrontier = new XBitSet(g.n);
+          for (int v = frontier.nextSetBit(0); v >= 0; v = frontier.nextSetBit(v + 1)) {
+            XBitSet nb = g.neighborSet[v].intersectWith(rest);
+            if (!nb.isEmpty()) {
+              int w = nb.nextSetBit(0);
+              newFrontier.set(w);
+              rest.clear(w);
+            }
           }
+          if (newFrontier.cardinality() < width - ns) {
+            break;
+          }
+          reached.or(newFrontier);
+          frontier = newFrontier;
+          depth++;
         }
-        if (newFrontier.cardinality() < width - ns) {
-          break;
+        int addition = reached.cardinality() - depth * (width - ns);
+        if ((nc + addition) * 2 + width > g.n) {
+          if (DEBUG) {
+            System.out.println(indent(level) + "returning null because of the xmass check by vertex disjoint paths " + 
+                ns + ", nd = " + nd + ", nc = " + nc + ", width = " + width + ", depth = " + 
+                depth + ", reached = " + reached.cardinality());
+          }
+          return;
         }
-        reached.or(newFrontier);
-        frontier = newFrontier;
-        depth++;
       }
-      int addition = reached.cardinality() - depth * (width - ns);
-      if ((nc + addition) * 2 + width > g.n) {
+      // The size of the final a-component should not exceed the size of another component
+      // so, 2 * a  + s <= g.n where a and s are the final separator size and the a-compo size
+      // Suppose t of nd are in the final separator, then a >= nc + nd - t and s >= ns + t
+      // so, 2 * (nc + nd) + ns - t <= g.n.
+      // If ns + nd <= width then t <= nd and otherwise t <= width - ns
+      // We have 2 * nc + ns + nd <= g.n in the former case and
+      // 2 * (nc + ns + nd) - width <= g.n in the latter case
+      if (ns + nd <= width && 2 * nc + ns + nd > g.n
+          ||
+          ns + nd > width && 2 * (nc + ns + nd) - width > g.n
+          ) {
         if (DEBUG) {
-          System.out.println(indent + "returning null because of the xmass check by vertex disjoint paths " + 
-              ns + ", nd = " + nd + ", nc = " + nc + ", width = " + width + ", depth = " + 
-              depth + ", reached = " + reached.cardinality());
+          System.out.println(indent(level) + "returning null because of the cardinality constraint: ns = " + 
+              ns + ", nd = " + nd + ", nc = " + nc + ", width = " + width);
         }
         return;
       }
-    }
-    // The size of the final a-component should not exceed the size of another component
-    // so, 2 * a  + s <= g.n where a and s are the final separator size and the a-compo size
-    // Suppose t of nd are in the final separator, then a >= nc + nd - t and s >= ns + t
-    // so, 2 * (nc + nd) + ns - t <= g.n.
-    // If ns + nd <= width then t <= nd and otherwise t <= width - ns
-    // We have 2 * nc + ns + nd <= g.n in the former case and
-    // 2 * (nc + ns + nd) - width <= g.n in the latter case
-    if (ns + nd <= width && 2 * nc + ns + nd > g.n
-        ||
-        ns + nd > width && 2 * (nc + ns + nd) - width > g.n
-        ) {
+
+      XBitSet bProximity = new XBitSet(g.n);
+      XBitSet prev = null;
+      bProximity.set(b);
+      while (!bProximity.intersects(toDecide)) {
+        prev = bProximity;
+        bProximity = g.closedNeighborSet(bProximity);
+        bProximity.andNot(sFixed);
+      }
+      XBitSet candidates = bProximity.intersectWith(toDecide);
+      int v = 0;
+      int max = 0;
+      for (int u = candidates.nextSetBit(0); u >= 0; u = candidates.nextSetBit(u + 1)) {
+        if (g.neighborSet[u].intersectWith(prev).cardinality() > max) {
+          v = u;
+          max = g.neighborSet[u].intersectWith(prev).cardinality();
+        }
+      }
+
       if (DEBUG) {
-        System.out.println(indent + "returning null because of the cardinality constraint: ns = " + 
-            ns + ", nd = " + nd + ", nc = " + nc + ", width = " + width);
+        System.out.println(indent(level) + " trying v = " + v + " to decide");
       }
-      return;
-    }
 
-    XBitSet bProximity = new XBitSet(g.n);
-    XBitSet prev = null;
-    bProximity.set(b);
-    while (!bProximity.intersects(toDecide)) {
-      prev = bProximity;
-      bProximity = g.closedNeighborSet(bProximity);
-      bProximity.andNot(sFixed);
-    }
-    XBitSet candidates = bProximity.intersectWith(toDecide);
-    int v = 0;
-    int max = 0;
-    for (int u = candidates.nextSetBit(0); u >= 0; u = candidates.nextSetBit(u + 1)) {
-      if (g.neighborSet[u].intersectWith(prev).cardinality() > max) {
-        v = u;
-        max = g.neighborSet[u].intersectWith(prev).cardinality();
+      // pushed in the reverse order of expansion
+      push(aFixed, sFixed.addBit(v), level + 1);
+      if (!aExcluded.get(v)) {
+        push(aFixed.addBit(v), sFixed, level + 1);
       }
     }
+  }
 
-    if (DEBUG) {
-      System.out.println(indent + " trying v = " + v + " to decide");
-    }
+  static class Frame {
+    XBitSet aFixed;
+    XBitSet sFixed;
+    int depth;
+  }
 
-    if (!aExcluded.get(v)) {
-      aFixed.set(v);
-      branch(aFixed, sFixed, indent + " ");
-      aFixed.clear(v);
+  static String indent(int depth) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < depth; i++) {
+      sb.append(" ");
     }
-
-    sFixed.set(v);
-    branch(aFixed, sFixed, indent + " ");
-    sFixed.clear(v);
+    return sb.toString();
   }
 
   boolean isMinimalSeparator(XBitSet separator) {
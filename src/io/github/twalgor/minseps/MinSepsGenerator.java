@@ -2,20 +2,35 @@ package io.github.twalgor.minseps;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
 
+import io.github.twalgor.common.CompactXBitSetSet;
 import io.github.twalgor.common.Graph;
+import io.github.twalgor.common.StripedXBitSetSet;
 import io.github.twalgor.common.XBitSet;
 
 public class MinSepsGenerator {
 //  static final boolean TRACE = true;
   static boolean TRACE = false;
+  // the parallelism of the fork-join mode; 1 for the sequential enumeration
+  public static int PARALLELISM = 1;
+  static final int PARALLEL_MIN_N = 60;
+  static ForkJoinPool pool;
+
   Graph g;
   int k;
   XBitSet aExcluded;
   public Set<XBitSet> minSeps;
+  Consumer<XBitSet> sink;
+
+  Integer[] vertices;
+  int nextVertex;
+  Search search;
 
   int aTarget;
   XBitSet aCompoTarget;
@@ -31,159 +46,329 @@ public class MinSepsGenerator {
     }
   }
   
+  /**
+   * Sets the consumer to which each minimal separator is passed
+   * as soon as it is generated for the first time.
+   * The consumer must be thread-safe in the fork-join mode.
+   * @param sink the consumer of the generated separators
+   */
+  public void setSink(Consumer<XBitSet> sink) {
+    this.sink = sink;
+  }
+
   public void generate() {
-    minSeps = new HashSet<>();
-    Integer[] vertices = new Integer[g.n];
+    start();
+    resume(Long.MAX_VALUE);
+  }
+
+  /**
+   * Prepares a pausable enumeration, to be driven by {@code resume}.
+   * In the fork-join mode the enumeration runs to the end on the first
+   * {@code resume} call.
+   */
+  public void start() {
+    vertices = new Integer[g.n];
     for (int i = 0; i < g.n; i++) {
       vertices[i] = i;
     }
 
     Arrays.sort(vertices, new NeighborSizeComparator());
 
+    if (PARALLELISM > 1 && g.n >= PARALLEL_MIN_N) {
+      minSeps = new StripedXBitSetSet(g.n, 4 * PARALLELISM);
+    }
+    else {
+      minSeps = new CompactXBitSetSet(g.n);
+    }
     aExcluded = new XBitSet(g.n);
-    for (int a : vertices) {
-      XBitSet aSide = new XBitSet(new int[] {a});
-      XBitSet bSide = g.all.subtract(g.neighborSet[a]);
-      bSide.clear(a);
+    nextVertex = 0;
+    search = null;
+  }
+
+  /**
+   * Continues the enumeration started by {@code start}
+   * @param maxSteps the maximum number of search steps to be taken
+   * @return {@code true} if the enumeration is complete
+   */
+  public boolean resume(long maxSteps) {
+    if (PARALLELISM > 1 && g.n >= PARALLEL_MIN_N) {
+      if (nextVertex < vertices.length) {
+        generateInParallel();
+      }
+      return true;
+    }
+    while (maxSteps > 0) {
+      if (search == null) {
+        if (nextVertex == vertices.length) {
+          return true;
+        }
+        int a = vertices[nextVertex++];
+        XBitSet sFixed = g.neighborSet[a].intersectWith(aExcluded);
+        if (sFixed.cardinality() > k) {
+          continue;
+        }
+        search = new Search(a, sFixed, aExcluded);
+      }
+      maxSteps -= search.run(maxSteps);
+      if (search.isDone()) {
+        aExcluded.set(search.a);
+        search = null;
+      }
+    }
+    return search == null && nextVertex == vertices.length;
+  }
+
+  /**
+   * The enumeration for each vertex {@code a} depends only on the set of
+   * the vertices preceding {@code a} that have not been skipped, so
+   * these prefixes are computed first and the enumerations are run
+   * as independent tasks, adding to a striped concurrent set.
+   * The resulting set is the same as that of the sequential enumeration.
+   */
+  void generateInParallel() {
+    ArrayList<FromVertex> tasks = new ArrayList<>();
+    for (; nextVertex < vertices.length; nextVertex++) {
+      int a = vertices[nextVertex];
       XBitSet sFixed = g.neighborSet[a].intersectWith(aExcluded);
       if (sFixed.cardinality() > k) {
         continue;
       }
-      generateFrom(a, aSide, bSide, g.neighborSet[a],  
-          sFixed, aExcluded, "");
+      tasks.add(new FromVertex(new Search(a, sFixed, (XBitSet) aExcluded.clone())));
       aExcluded.set(a);
     }
+    forkJoinPool().invoke(new RecursiveAction() {
+      @Override
+      protected void compute() {
+        invokeAll(tasks);
+      }
+    });
+  }
 
+  static synchronized ForkJoinPool forkJoinPool() {
+    if (pool == null) {
+      pool = new ForkJoinPool(PARALLELISM);
+    }
+    return pool;
   }
 
-  void generateFrom(int a, XBitSet aSide, XBitSet rest, XBitSet separator, XBitSet sFixed,
-      XBitSet aExcluded, String indent) {
-    if (TRACE) {
-      System.out.println(indent + "generateFrom a = " + a + 
-          ", aSide = " + aSide);
-      System.out.println(indent+ " rest = " + rest + ", aExcluded" + aExcluded); ;
-      System.out.println(indent+ " separator = " + separator);
-      System.out.println(indent + " sFixed  = " + sFixed);
+  class FromVertex extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    Search search;
 
-      System.out.println(indent + minSeps.size() + " minSeps so far");
+    FromVertex(Search search) {
+      this.search = search;
     }
-    if (TRACE) {
-      System.out.println(indent + "generateFrom a = " + a + 
-          ", aSide = " + aSide + ", rest = " + rest + ", separator = " 
-          + separator + ", aExcluded = " + aExcluded);
-      System.out.println(indent + "k = " + k + ", " +  minSeps.size() + " minSeps so far");
+
+    @Override
+    protected void compute() {
+      search.run(Long.MAX_VALUE);
     }
+  }
 
-    assert g.neighborSet(aSide).equals(separator);
-    ArrayList<XBitSet> fulls = new ArrayList<>();
-    ArrayList<XBitSet> nonFulls = new ArrayList<>();
-    g.listComponents(rest, separator, fulls, nonFulls);
-    
-    for (XBitSet full: fulls) {
-      if (TRACE) {
-        System.out.println(indent + "full" + full);
+  static final int GENERATE_FROM = 0;
+  static final int BRANCH = 1;
+
+  static class Frame {
+    int type;
+    XBitSet aSide;
+    XBitSet bSide;
+    XBitSet separator;
+    XBitSet sFixed;
+    int depth;
+  }
+
+  /**
+   * The enumeration for a single vertex {@code a}, run on an explicit
+   * stack of frames in place of the mutual recursion of
+   * {@code generateFrom} and {@code branch}, so that it can be
+   * suspended after any number of steps. Frames are recycled.
+   * The children of a step are pushed in the reverse order, so that they
+   * are expanded in the order the recursion would visit them.
+   */
+  class Search {
+    int a;
+    XBitSet aExcluded;
+    ArrayList<Frame> stack;
+    ArrayList<Frame> free;
+
+    Search(int a, XBitSet sFixed, XBitSet aExcluded) {
+      this.a = a;
+      this.aExcluded = aExcluded;
+      stack = new ArrayList<>();
+      free = new ArrayList<>();
+      XBitSet aSide = new XBitSet(new int[] {a});
+      XBitSet bSide = g.all.subtract(g.neighborSet[a]);
+      bSide.clear(a);
+      push(GENERATE_FROM, aSide, bSide, g.neighborSet[a], sFixed, 0);
+    }
+
+    boolean isDone() {
+      return stack.isEmpty();
+    }
+
+    /**
+     * Expands frames until the stack is empty or the step limit is reached
+     * @param maxSteps the maximum number of frames to be expanded
+     * @return the number of frames expanded
+     */
+    long run(long maxSteps) {
+      long steps = 0;
+      while (!stack.isEmpty() && steps < maxSteps) {
+        Frame f = stack.remove(stack.size() - 1);
+        int type = f.type;
+        XBitSet aSide = f.aSide;
+        XBitSet bSide = f.bSide;
+        XBitSet separator = f.separator;
+        XBitSet sFixed = f.sFixed;
+        int depth = f.depth;
+        f.aSide = f.bSide = f.separator = f.sFixed = null;
+        free.add(f);
+        if (type == GENERATE_FROM) {
+          generateFrom(aSide, bSide, separator, sFixed, depth);
+        }
+        else {
+          branch(aSide, bSide, separator, sFixed, depth);
+        }
+        steps++;
       }
-      branch(a, aSide, full, separator, sFixed, aExcluded, indent);
+      return steps;
     }
-    
-    for (XBitSet bCompo: nonFulls) {
-      XBitSet sep = g.neighborSet(bCompo);
-      if (!sFixed.isSubset(sep)) {
-        continue;
+
+    void push(int type, XBitSet aSide, XBitSet bSide, XBitSet separator, 
+        XBitSet sFixed, int depth) {
+      Frame f = free.isEmpty() ? new Frame() : free.remove(free.size() - 1);
+      f.type = type;
+      f.aSide = aSide;
+      f.bSide = bSide;
+      f.separator = separator;
+      f.sFixed = sFixed;
+      f.depth = depth;
+      stack.add(f);
+    }
+
+    void generateFrom(XBitSet aSide, XBitSet rest, XBitSet separator, XBitSet sFixed,
+        int depth) {
+      if (TRACE) {
+        String indent = indent(depth);
+        System.out.println(indent + "generateFrom a = " + a + 
+            ", aSide = " + aSide);
+        System.out.println(indent+ " rest = " + rest + ", aExcluded" + aExcluded); ;
+        System.out.println(indent+ " separator = " + separator);
+        System.out.println(indent + " sFixed  = " + sFixed);
+
+        System.out.println(indent + minSeps.size() + " minSeps so far");
       }
-      XBitSet rest1 = g.all.subtract(bCompo);
-      rest1.andNot(sep);
-      ArrayList<XBitSet> compos = g.componentsOf(rest1);
-      for (XBitSet c: compos) {
-        if (c.get(a)) {
-          if (!c.intersects(aExcluded)) {
-            branch(a, c, bCompo, sep, sFixed, aExcluded, indent);
+
+      assert g.neighborSet(aSide).equals(separator);
+      ArrayList<XBitSet> fulls = new ArrayList<>();
+      ArrayList<XBitSet> nonFulls = new ArrayList<>();
+      g.listComponents(rest, separator, fulls, nonFulls);
+      
+      int bottom = stack.size();
+      for (XBitSet full: fulls) {
+        if (TRACE) {
+          System.out.println(indent(depth) + "full" + full);
+        }
+        push(BRANCH, aSide, full, separator, sFixed, depth);
+      }
+      
+      for (XBitSet bCompo: nonFulls) {
+        XBitSet sep = g.neighborSet(bCompo);
+        if (!sFixed.isSubset(sep)) {
+          continue;
+        }
+        XBitSet rest1 = g.all.subtract(bCompo);
+        rest1.andNot(sep);
+        ArrayList<XBitSet> compos = g.componentsOf(rest1);
+        for (XBitSet c: compos) {
+          if (c.get(a)) {
+            if (!c.intersects(aExcluded)) {
+              push(BRANCH, c, bCompo, sep, sFixed, depth);
+            }
+            break;
           }
-          break;
         }
       }
+      Collections.reverse(stack.subList(bottom, stack.size()));
     }
-  }
-  
-  void branch(int a, XBitSet aSide, XBitSet bSide, XBitSet separator, 
-      XBitSet sFixed, XBitSet aExcluded,       
-      String indent) {
-    if (TRACE) {
-      System.out.println(indent + "branch for a = " + a + 
-          ", aSide = " + aSide);
-      System.out.println(indent + "bSide = " + bSide);
-      System.out.println(indent + "separator = " + separator);
-      System.out.println(indent + "sFixed = " + sFixed);
+    
+    void branch(XBitSet aSide, XBitSet bSide, XBitSet separator, 
+        XBitSet sFixed, int depth) {
+      if (TRACE) {
+        String indent = indent(depth);
+        System.out.println(indent + "branch for a = " + a + 
+            ", aSide = " + aSide);
+        System.out.println(indent + "bSide = " + bSide);
+        System.out.println(indent + "separator = " + separator);
+        System.out.println(indent + "sFixed = " + sFixed);
 
-      System.out.println(indent + minSeps.size() + " minSeps so far");
-    }
-//    if (minSeps.size() > maxOnGenerated) {
-//      return;
-//    }
+        System.out.println(indent + minSeps.size() + " minSeps so far");
+      }
 
-    int nA = aSide.cardinality();
-    int nS = separator.cardinality();
-    if (nS <= k && nA > (g.n - nS) / 2
-      || nS > k && nA + (nS - k) > (g.n - k) / 2) {
-      return;
-    }
+      int nA = aSide.cardinality();
+      int nS = separator.cardinality();
+      if (nS <= k && nA > (g.n - nS) / 2
+        || nS > k && nA + (nS - k) > (g.n - k) / 2) {
+        return;
+      }
 
-    assert sFixed.isSubset(separator);
-    assert sFixed.cardinality() <= k;
-    assert g.neighborSet(aSide).equals(separator);
-    assert g.neighborSet(bSide).equals(separator);
-    if (separator.cardinality() <= k) {
+      assert sFixed.isSubset(separator);
+      assert sFixed.cardinality() <= k;
+      assert g.neighborSet(aSide).equals(separator);
+      assert g.neighborSet(bSide).equals(separator);
+      if (separator.cardinality() <= k) {
+        if (TRACE) {
+          System.out.println(indent(depth) + "minSep added: " + separator);
+        }
+        if (minSeps.add(separator) && sink != null) {
+          sink.accept(separator);
+        }
+      }
+
+      if (sFixed.cardinality() == k) {
+        return;
+      }
+      
+      XBitSet toDecide = separator.subtract(sFixed);
+      assert !toDecide.intersects(aExcluded);
+      
       if (TRACE) {
-        System.out.println(indent + "minSep added: " + separator);
+        System.out.println(indent(depth) + "toDecide " + toDecide);
       }
-      minSeps.add(separator);
-//      if (minSeps.size() > maxOnGenerated) {
-//        return;
-//      }
-    }
-    if (TRACE) {
-      System.out.println(indent + "sFixed " + sFixed);
-    }
 
-    if (sFixed.cardinality() == k) {
-      return;
-    }
-    
-    XBitSet toDecide = separator.subtract(sFixed);
-    assert !toDecide.intersects(aExcluded);
-    
-    if (TRACE) {
-      System.out.println(indent + "toDecide " + toDecide);
+      if (toDecide.isEmpty()) {
+        return;
+      }
+      
+      int v = largestNeighborhoodVertex(toDecide, bSide);
+      if (TRACE) {
+        System.out.println(indent(depth) + "branching on " + v);
+      }
+      XBitSet rest = bSide.subtract(g.neighborSet[v]);
+      XBitSet nb = g.neighborSet[v].subtract(separator);
+      nb.andNot(aSide);
+      XBitSet separator1 = separator.removeBit(v).unionWith(nb);
+      XBitSet sFixed1 = sFixed.unionWith(nb.intersectWith(aExcluded));
+      if (TRACE) {
+        System.out.println(indent(depth) + "sFixed1 = " + sFixed1);
+      }
+      // pushed in the reverse order of expansion
+      if (sFixed.cardinality() < k) {
+        push(BRANCH, aSide, bSide, separator, sFixed.addBit(v), depth + 1);
+      }
+      if (sFixed1.cardinality() <= k) {
+        push(GENERATE_FROM, aSide.addBit(v), rest, 
+          separator1, sFixed1, depth + 1);
+      }
     }
+  }
 
-    if (toDecide.isEmpty()) {
-      return;
-    }
-    
-    
-//    if (sterile(aSide, bSide, separator, sFixed)) {
-//      return;    
-//    }
-    
-    int v = largestNeighborhoodVertex(toDecide, bSide);
-    if (TRACE) {
-      System.out.println(indent + "branching on " + v);
-    }
-    XBitSet rest = bSide.subtract(g.neighborSet[v]);
-    XBitSet nb = g.neighborSet[v].subtract(separator);
-    nb.andNot(aSide);
-    XBitSet separator1 = separator.removeBit(v).unionWith(nb);
-    XBitSet sFixed1 = sFixed.unionWith(nb.intersectWith(aExcluded));
-    if (TRACE) {
-      System.out.println(indent + "sFixed1 = " + sFixed1);
-    }
-    if (sFixed1.cardinality() <= k) {
-      generateFrom(a, aSide.addBit(v), rest, 
-        separator1, sFixed1, aExcluded, indent + " ");
-    }
-    if (sFixed.cardinality() < k) {
-      branch(a, aSide, bSide, separator, sFixed.addBit(v), aExcluded, indent + " ");
+  static String indent(int depth) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < depth; i++) {
+      sb.append(" ");
     }
+    return sb.toString();
   }
   
   int largestNeighborhoodVertex(XBitSet toDecide, XBitSet bSide) {
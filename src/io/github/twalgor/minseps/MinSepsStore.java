@@ -0,0 +1,387 @@
+package io.github.twalgor.minseps;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import io.github.twalgor.common.CompactXBitSetSet;
+import io.github.twalgor.common.Graph;
+import io.github.twalgor.common.WLColoring;
+import io.github.twalgor.common.XBitSet;
+
+/**
+ * A directory of binary files, each holding the minimal separators of
+ * size at most {@code k} of a graph, so that the enumeration need not be
+ * repeated across runs.
+ * A file is named after the Weisfeiler-Leman hash of the graph and
+ * {@code k}. As the hash is not canonical, the file also holds the
+ * adjacency of the graph, and the stored separators are used only if
+ * an isomorphism from the graph at hand to the stored graph is found;
+ * the separators are then mapped through the isomorphism.
+ * Files are read through memory mapping and carry a CRC32 of their
+ * content: a file failing the check is deleted.
+ * Files are written on a background thread, so that the enumerating
+ * threads do not wait for the disk; the pending writes are completed
+ * before the JVM exits.
+ * When the directory grows beyond its byte budget, the files
+ * least recently used are deleted.
+ * <p>
+ * Layout, in big-endian longs: magic, version, n, k, the number of
+ * separators, the number of words per vertex set, the hash;
+ * then the neighbor sets of the n vertices and the separators, each
+ * in the given number of words; finally the CRC32 of all preceding bytes.
+ */
+public class MinSepsStore {
+  static final long MAGIC = 0x4d494e5345505331L;
+  static final long VERSION = 1;
+  static final int HEADER_LONGS = 7;
+  static final int ISO_BUDGET = 100000;
+  // graphs smaller than this are enumerated faster than looked up
+  public static final int MIN_N = 30;
+  public static final long DEFAULT_MAX_BYTES = 1L << 30;
+  // saves beyond this many pending are dropped
+  static final int MAX_PENDING = 16;
+
+  private static MinSepsStore defaultStore;
+
+  /**
+   * @return the store used by {@code SemiPID}; {@code null} if none is set
+   */
+  public static synchronized MinSepsStore getDefault() {
+    return defaultStore;
+  }
+
+  public static synchronized void setDefault(MinSepsStore store) {
+    defaultStore = store;
+  }
+
+  File dir;
+  long maxBytes;
+  // the total size of the files, kept up to date by this store
+  long totalBytes;
+  ArrayDeque<Pending> pending;
+  boolean writing;
+
+  long hits;
+  long misses;
+  long corrupted;
+  long dropped;
+
+  /**
+   * Opens the store in the given directory, creating it if necessary
+   * @param dir the directory
+   * @param maxBytes the total size of the files to be kept
+   */
+  public MinSepsStore(File dir, long maxBytes) {
+    this.dir = dir;
+    this.maxBytes = maxBytes;
+    dir.mkdirs();
+    File[] files = listFiles();
+    if (files != null) {
+      for (File f: files) {
+        totalBytes += f.length();
+      }
+    }
+    evict();
+    pending = new ArrayDeque<>();
+    Thread writer = new Thread(this::run, "MinSepsStore");
+    writer.setDaemon(true);
+    writer.start();
+    Runtime.getRuntime().addShutdownHook(new Thread(this::flush));
+  }
+
+  File[] listFiles() {
+    return dir.listFiles((d, name) -> name.endsWith(".msep"));
+  }
+
+  File fileFor(long hash, int k) {
+    return new File(dir, String.format("%016x-%d.msep", hash, k));
+  }
+
+  /**
+   * Loads the minimal separators of the given graph stored for {@code k}
+   * @param g graph
+   * @param k the bound on the separator size
+   * @return the set of the minimal separators; {@code null} if not stored
+   */
+  public Set<XBitSet> load(Graph g, int k) {
+    WLColoring wl = new WLColoring(g);
+    File file = fileFor(wl.hash, k);
+    if (!file.exists()) {
+      miss();
+      return null;
+    }
+    Set<XBitSet> minSeps = null;
+    boolean broken = false;
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+        FileChannel channel = raf.getChannel()) {
+      long size = channel.size();
+      if (size < 8 * (HEADER_LONGS + 1) || size % 8 != 0) {
+        broken = true;
+      }
+      else {
+        MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        if (!checksumOK(mapped, size)) {
+          broken = true;
+        }
+        else {
+          minSeps = read(mapped.asLongBuffer(), g, wl, k);
+        }
+      }
+    } catch (IOException | IllegalArgumentException e) {
+      // a file over 2GB cannot be mapped
+      broken = true;
+    }
+    if (broken) {
+      synchronized (this) {
+        corrupted++;
+        delete(file);
+      }
+    }
+    if (minSeps == null) {
+      miss();
+      return null;
+    }
+    file.setLastModified(System.currentTimeMillis());
+    synchronized (this) {
+      hits++;
+    }
+    return minSeps;
+  }
+
+  Set<XBitSet> read(LongBuffer lb, Graph g, WLColoring wl, int k) {
+    if (lb.get(0) != MAGIC || lb.get(1) != VERSION ||
+        lb.get(2) != g.n || lb.get(3) != k || lb.get(6) != wl.hash) {
+      return null;
+    }
+    long nSeps = lb.get(4);
+    int width = (int) lb.get(5);
+    if (width != words(g.n) ||
+        lb.capacity() != HEADER_LONGS + (g.n + nSeps) * width + 1) {
+      return null;
+    }
+    int pos = HEADER_LONGS;
+    Graph stored = new Graph(g.n);
+    for (int v = 0; v < g.n; v++) {
+      XBitSet nb = readSet(lb, pos, width);
+      pos += width;
+      for (int w = nb.nextSetBit(v + 1); w >= 0; w = nb.nextSetBit(w + 1)) {
+        stored.addEdge(v, w);
+      }
+    }
+    int[] iso = wl.isomorphismTo(new WLColoring(stored), ISO_BUDGET);
+    if (iso == null) {
+      return null;
+    }
+    int[] inv = new int[g.n];
+    for (int v = 0; v < g.n; v++) {
+      inv[iso[v]] = v;
+    }
+    Set<XBitSet> minSeps = new CompactXBitSetSet(g.n, (int) nSeps);
+    for (long i = 0; i < nSeps; i++) {
+      minSeps.add(readSet(lb, pos, width).convert(inv));
+      pos += width;
+    }
+    return minSeps;
+  }
+
+  /**
+   * Hands the minimal separators of the given graph for {@code k} to the
+   * writer, which stores them replacing the file of a colliding graph if
+   * any; the save is dropped if too many are pending
+   * @param g graph, which must not be modified afterwards
+   * @param k the bound on the separator size
+   * @param minSeps the set of all the minimal separators of size at most k,
+   * which must not be modified afterwards
+   */
+  public synchronized void save(Graph g, int k, Set<XBitSet> minSeps) {
+    if (pending.size() >= MAX_PENDING) {
+      dropped++;
+      return;
+    }
+    pending.add(new Pending(g, k, minSeps));
+    notifyAll();
+  }
+
+  /**
+   * Waits until all the saves handed so far are written
+   */
+  public synchronized void flush() {
+    while (!pending.isEmpty() || writing) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+
+  void run() {
+    while (true) {
+      Pending p;
+      synchronized (this) {
+        while (pending.isEmpty()) {
+          try {
+            wait();
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+        p = pending.poll();
+        writing = true;
+      }
+      write(p.g, p.k, p.minSeps);
+      synchronized (this) {
+        writing = false;
+        notifyAll();
+      }
+    }
+  }
+
+  static class Pending {
+    Graph g;
+    int k;
+    Set<XBitSet> minSeps;
+
+    Pending(Graph g, int k, Set<XBitSet> minSeps) {
+      this.g = g;
+      this.k = k;
+      this.minSeps = minSeps;
+    }
+  }
+
+  void write(Graph g, int k, Set<XBitSet> minSeps) {
+    WLColoring wl = new WLColoring(g);
+    int width = words(g.n);
+    long nLongs = HEADER_LONGS + (long) (g.n + minSeps.size()) * width + 1;
+    File file = fileFor(wl.hash, k);
+    File tmp = new File(dir, file.getName() + "." + Thread.currentThread().getId() + ".tmp");
+    try {
+      try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+          FileChannel channel = raf.getChannel()) {
+        MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, 8 * nLongs);
+        LongBuffer lb = mapped.asLongBuffer();
+        lb.put(MAGIC).put(VERSION).put(g.n).put(k).put(minSeps.size()).put(width).put(wl.hash);
+        for (int v = 0; v < g.n; v++) {
+          writeSet(lb, g.neighborSet[v], width);
+        }
+        for (XBitSet sep: minSeps) {
+          writeSet(lb, sep, width);
+        }
+        lb.put(crc(mapped, 8 * (nLongs - 1)));
+      }
+      synchronized (this) {
+        long replaced = file.length();
+        Files.move(tmp.toPath(), file.toPath(),
+            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        totalBytes += 8 * nLongs - replaced;
+        evict();
+      }
+    } catch (IOException | IllegalArgumentException e) {
+      // a file over 2GB cannot be mapped
+      tmp.delete();
+    }
+  }
+
+  /**
+   * Deletes the least recently used files while the total size
+   * exceeds the budget.
+   * The directory is listed only when the running total is over the budget
+   */
+  public synchronized void evict() {
+    if (totalBytes <= maxBytes) {
+      return;
+    }
+    File[] files = listFiles();
+    if (files == null) {
+      return;
+    }
+    long total = 0;
+    for (File f: files) {
+      total += f.length();
+    }
+    totalBytes = total;
+    long[] modified = new long[files.length];
+    Integer[] ord = new Integer[files.length];
+    for (int i = 0; i < files.length; i++) {
+      modified[i] = files[i].lastModified();
+      ord[i] = i;
+    }
+    Arrays.sort(ord, Comparator.comparingLong(i -> modified[i]));
+    for (int i: ord) {
+      if (total <= maxBytes) {
+        break;
+      }
+      long length = files[i].length();
+      if (files[i].delete()) {
+        total -= length;
+      }
+    }
+    totalBytes = total;
+  }
+
+  synchronized void delete(File file) {
+    long length = file.length();
+    if (file.delete()) {
+      totalBytes -= length;
+    }
+  }
+
+  static int words(int n) {
+    return Math.max(1, (n + 63) / 64);
+  }
+
+  static XBitSet readSet(LongBuffer lb, int pos, int width) {
+    XBitSet s = new XBitSet(width * 64);
+    for (int j = 0; j < width; j++) {
+      long w = lb.get(pos + j);
+      while (w != 0) {
+        s.set(j * 64 + Long.numberOfTrailingZeros(w));
+        w &= w - 1;
+      }
+    }
+    return s;
+  }
+
+  static void writeSet(LongBuffer lb, XBitSet s, int width) {
+    long[] words = s.toLongArray();
+    for (int j = 0; j < width; j++) {
+      lb.put(j < words.length ? words[j] : 0);
+    }
+  }
+
+  static boolean checksumOK(ByteBuffer buf, long size) {
+    return crc(buf, size - 8) == buf.getLong((int) (size - 8));
+  }
+
+  static long crc(ByteBuffer buf, long length) {
+    ByteBuffer view = buf.duplicate();
+    view.position(0);
+    view.limit((int) length);
+    CRC32 crc = new CRC32();
+    crc.update(view);
+    return crc.getValue();
+  }
+
+  synchronized void miss() {
+    misses++;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "MinSepsStore " + dir + ": " + hits + " hits, " +
+        misses + " misses, " + corrupted + " corrupted, " + dropped + " dropped";
+  }
+}
@@ -0,0 +1,118 @@
+package io.github.twalgor.minseps;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import io.github.twalgor.common.Graph;
+import io.github.twalgor.common.XBitSet;
+
+/**
+ * Runs a {@code MinSepsGenerator} on a producer thread and hands the
+ * minimal separators over to the consumer through a bounded queue,
+ * so that the consumer can process the separators while the enumeration
+ * is going on. The producer blocks while the queue is full.
+ * In the fork-join mode of the generator, the separators are put by the
+ * workers of the pool, which cannot be interrupted: a blocked worker
+ * checks the cancellation at a short interval instead.
+ * The generator still holds the set of the separators generated so far,
+ * as it needs the set to suppress duplicates.
+ */
+public class MinSepsStream {
+  // marks the end of the stream; compared by identity
+  static final XBitSet END = new XBitSet(0);
+  // the interval at which a blocked producer checks the cancellation
+  static final long OFFER_MILLIS = 50;
+
+  Graph g;
+  int k;
+  BlockingQueue<XBitSet> queue;
+  Thread producer;
+  volatile Throwable failure;
+  volatile boolean cancelled;
+  volatile long generationTime;
+
+  public MinSepsStream(Graph g, int k, int capacity) {
+    this.g = g;
+    this.k = k;
+    queue = new ArrayBlockingQueue<>(capacity);
+  }
+
+  public void start() {
+    producer = new Thread(() -> {
+      long t = System.nanoTime();
+      try {
+        MinSepsGenerator msg = new MinSepsGenerator(g, k);
+        msg.setSink(sep -> put(sep));
+        msg.generate();
+      } catch (Throwable e) {
+        failure = e;
+      }
+      generationTime = System.nanoTime() - t;
+      if (!cancelled) {
+        try {
+          queue.put(END);
+        } catch (InterruptedException e) {
+        }
+      }
+    }, "MinSepsStream");
+    producer.setDaemon(true);
+    producer.start();
+  }
+
+  void put(XBitSet sep) {
+    try {
+      while (!cancelled) {
+        if (queue.offer(sep, OFFER_MILLIS, TimeUnit.MILLISECONDS)) {
+          return;
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    throw new RuntimeException("minimal separator stream cancelled");
+  }
+
+  /**
+   * Takes the next minimal separator, waiting for it if necessary
+   * @return the next separator; {@code null} if the enumeration has ended
+   */
+  public XBitSet take() {
+    XBitSet sep;
+    try {
+      sep = queue.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      cancel();
+      throw new RuntimeException(e);
+    }
+    if (sep == END) {
+      if (failure != null) {
+        throw new RuntimeException(failure);
+      }
+      return null;
+    }
+    return sep;
+  }
+
+  /**
+   * Stops the producer if the consumer gives up before the end; the
+   * separators not taken are dropped, so that the puts blocked on the
+   * full queue return at once
+   */
+  public void cancel() {
+    cancelled = true;
+    if (producer != null) {
+      producer.interrupt();
+    }
+    queue.clear();
+  }
+
+  /**
+   * @return the time in nanoseconds the enumeration took;
+   * valid after {@code take} has returned {@code null}
+   */
+  public long getGenerationTime() {
+    return generationTime;
+  }
+}
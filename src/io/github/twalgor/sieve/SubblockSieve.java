@@ -18,7 +18,7 @@ public class SubblockSieve {
     BYTE, SHORT, INT, LONG, LEAF
   }
 
-  int[] typeLength = new int[] 
+  static final int[] typeLength = new int[] 
       {Byte.BYTES, Short.BYTES, Integer.BYTES,  Long.BYTES, 0};
   
   private static final int NODE_SIZE = 20000;
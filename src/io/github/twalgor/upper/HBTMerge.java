@@ -2,15 +2,23 @@ package io.github.twalgor.upper;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeoutException;
 
 import io.github.twalgor.common.Chordal;
+import io.github.twalgor.common.CompactXBitSetSet;
 import io.github.twalgor.log.Log;
 import io.github.twalgor.common.Graph;
 import io.github.twalgor.common.LocalGraph;
@@ -18,6 +26,7 @@ import io.github.twalgor.common.Subgraph;
 import io.github.twalgor.common.TreeDecomposition;
 import io.github.twalgor.common.XBitSet;
 import io.github.twalgor.decomposer.SemiPID;
+import io.github.twalgor.decomposer.TWCache;
 import io.github.twalgor.greedy.MMAF;
 import io.github.twalgor.sieve.SubblockSieve;
 
@@ -37,6 +46,26 @@ public class HBTMerge {
   public static final int N_INITIAL_GREEDY = 10;
   public static final int BASE_SIZE = 60;
   public static final int N_TRY = 50;
+  // the number of threads evaluating the focuses of a merge; 1 for
+  // the sequential evaluation
+  public static int FOCUS_THREADS = 1;
+  static ExecutorService focusPool;
+  // the number of threads for the initial greedy trials; with 1 and
+  // INITIAL_MILLIS of 0, the N_INITIAL_GREEDY trials are sequential
+  public static int INITIAL_THREADS = 1;
+  // if positive, the initial greedy trials go on for at least this many
+  // milliseconds, at the cost of reproducibility
+  public static long INITIAL_MILLIS = 0;
+  static ExecutorService initialPool;
+  // the approximate number of bytes the pmcs, blocks and their maps of
+  // all the chains of merges and pmc pools of the process may occupy
+  public static long POOL_BYTES = Runtime.getRuntime().maxMemory() / 4;
+  // a pmc not in the optimal triangulation for this many rounds may be evicted
+  public static final int STALE_ROUNDS = 5;
+  // the number of focuses whose pmcs are remembered while the width is unchanged
+  public static int FOCUS_CACHE_SIZE = 1024;
+  static final int PMC_OVERHEAD = 160;
+  static final int BLOCK_OVERHEAD = 200;
   static final int MAX_INDENT = 40;
 
   public static Log log;
@@ -50,8 +79,36 @@ public class HBTMerge {
 
   Set<XBitSet> pmcs;
 
+  // the pmcs in pmcs not yet in pmcMap
+  ArrayList<XBitSet> pending;
+
   Map<XBitSet, Block> blockMap;
   Map<XBitSet, PMC> pmcMap;
+  // the blocks whose width is to be evaluated, smaller first
+  PriorityQueue<Block> dirty;
+  // the pmcs whose width is to be computed again: the new ones and
+  // those with a subblock whose width has changed
+  ArrayList<PMC> stale;
+  // a pmc of the minimum width, the first found among the ties
+  PMC best;
+  // the pmcs in the current optimal triangulation
+  ArrayList<PMC> optimal;
+
+  // from a focus to the pmcs taken from it, in the access order
+  LinkedHashMap<XBitSet, ArrayList<XBitSet>> focusCache;
+  int focusCacheWidth;
+  long focusHits;
+  long focusMisses;
+
+  // the bytes charged to the PMCBudget
+  long charged;
+  // the pmcs evicted since the width last improved, not taken in again
+  CompactXBitSetSet evicted;
+  int round;
+  long nEvictions;
+  long evictedWide;
+  long evictedStale;
+  long peakBytes;
   Block[] ba;
 
   SubblockSieve sieve;
@@ -60,6 +117,9 @@ public class HBTMerge {
 
   Random random;
 
+  // set to abandon the current step; the chain is not improved afterwards
+  volatile boolean cancelled;
+
   long t0;
 
   public HBTMerge(Graph g, int depth, Random random) {
@@ -67,41 +127,127 @@ public class HBTMerge {
     this.depth = depth;
     this.random = random;
     baseSize = BASE_SIZE;
+    evicted = new CompactXBitSetSet(g.n);
+    focusCache = new LinkedHashMap<XBitSet, ArrayList<XBitSet>>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<XBitSet, ArrayList<XBitSet>> eldest) {
+        return size() > FOCUS_CACHE_SIZE;
+      }
+    };
     if (TRACE) {
       System.out.println(indent() + "Mergeable of depth " + depth);
     }
   }
 
   void initialize() {
-    int minWidth = 0;
-    int[] bestInv = null;
-    Graph bestH = null;
-    for (int i = 0; i < N_INITIAL_GREEDY; i++) {
-      int[] conv = randomPermutation(g.n, random);
-      int[] inv = Graph.inversion(g.n, conv, g.n);
-      Graph h = new Graph(g.n);
-      h.inheritEdges(g, conv, inv);
-      MMAF mmaf = new MMAF(h);
-      mmaf.triangulate();
-      if (bestInv == null || mmaf.width < minWidth) {
-        minWidth = mmaf.width;
-        if (TRACE) {
-          System.out.println(indent() + "better mmaf width " + minWidth);
+    Trial best = null;
+    if (INITIAL_THREADS <= 1 && INITIAL_MILLIS == 0) {
+      for (int i = 0; i < N_INITIAL_GREEDY; i++) {
+        Trial trial = new Trial(randomPermutation(g.n, random));
+        if (best == null || trial.width < best.width) {
+          best = trial;
+          if (TRACE) {
+            System.out.println(indent() + "better mmaf width " + best.width);
+          }
         }
-        bestInv = inv;
-        bestH = h;
       }
     }
-    Chordal chordal = new Chordal(bestH);
+    else {
+      best = parallelTrials();
+    }
+    Chordal chordal = new Chordal(best.h);
     Set<XBitSet> cliques = chordal.maximalCliques();
     pmcs = new HashSet<>();
+    pending = new ArrayList<>();
     for (XBitSet clique : cliques) {
-      pmcs.add(clique.convert(bestInv));
+      addPMC(clique.convert(best.inv));
     }
-    width = minWidth;
+    width = best.width;
 
     dp();
     optimalTriangulation();
+    charge();
+  }
+
+  /**
+   * Runs the {@code N_INITIAL_GREEDY} initial greedy trials on the shared
+   * pool, with their permutations drawn from {@code random} as in the
+   * sequential trials, so that the best of them is the same.
+   * If {@code INITIAL_MILLIS} is positive and has not elapsed, more trials
+   * follow in rounds of {@code INITIAL_THREADS}, with permutations from a
+   * generator seeded once from {@code random}; the result then depends on
+   * the speed of the machine.
+   * @return the best trial, the one with the smallest index among the ties
+   */
+  Trial parallelTrials() {
+    long t = System.currentTimeMillis();
+    int nThreads = Math.max(INITIAL_THREADS, 1);
+    ArrayList<int[]> perms = new ArrayList<>();
+    for (int i = 0; i < N_INITIAL_GREEDY; i++) {
+      perms.add(randomPermutation(g.n, random));
+    }
+    Random extra = INITIAL_MILLIS > 0 ? new Random(random.nextLong()) : null;
+    Trial best = null;
+    ExecutorService pool = initialPool();
+    while (true) {
+      ArrayList<Future<Trial>> futures = new ArrayList<>();
+      for (int[] perm: perms) {
+        futures.add(pool.submit(() -> new Trial(perm)));
+      }
+      for (Future<Trial> future: futures) {
+        Trial trial;
+        try {
+          trial = future.get();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+          throw new RuntimeException(e.getCause());
+        }
+        if (best == null || trial.width < best.width) {
+          best = trial;
+          if (TRACE) {
+            System.out.println(indent() + "better mmaf width " + best.width);
+          }
+        }
+      }
+      if (extra == null || System.currentTimeMillis() - t >= INITIAL_MILLIS) {
+        return best;
+      }
+      perms.clear();
+      for (int i = 0; i < nThreads; i++) {
+        perms.add(randomPermutation(g.n, extra));
+      }
+    }
+  }
+
+  static synchronized ExecutorService initialPool() {
+    if (initialPool == null) {
+      initialPool = Executors.newFixedThreadPool(Math.max(INITIAL_THREADS, 1), r -> {
+        Thread t = new Thread(r, "HBTMerge-initial");
+        t.setDaemon(true);
+        return t;
+      });
+    }
+    return initialPool;
+  }
+
+  /**
+   * A greedy triangulation of the graph relabeled by a permutation
+   */
+  class Trial {
+    int[] inv;
+    Graph h;
+    int width;
+
+    Trial(int[] conv) {
+      inv = Graph.inversion(g.n, conv, g.n);
+      h = new Graph(g.n);
+      h.inheritEdges(g, conv, inv);
+      MMAF mmaf = new MMAF(h);
+      mmaf.triangulate();
+      width = mmaf.width;
+    }
   }
 
   int[] randomPermutation(int n, Random random) {
@@ -117,9 +263,24 @@ public class HBTMerge {
     return result;
   }
 
+  /**
+   * Makes the current step of this chain of merges return before the
+   * next focus is evaluated; the chain is not to be improved afterwards
+   */
+  void cancel() {
+    for (HBTMerge m = this; m != null; m = m.side) {
+      m.cancelled = true;
+    }
+  }
+
   void improve() {
+    if (cancelled) {
+      return;
+    }
     if (side == null) {
-      side = new HBTMerge(g, depth + 1, random);
+      HBTMerge m = new HBTMerge(g, depth + 1, random);
+      m.cancelled = cancelled;
+      side = m;
       side.initialize();
     }
     if (side.width > width) {
@@ -133,13 +294,19 @@ public class HBTMerge {
   void mergeWith(HBTMerge side) {
     XBitSet pmc = randomPMC();
     XBitSet component = largestComponent(pmc);
+    if (component == null) {
+      // the pmc is the whole vertex set: the graph is complete
+      return;
+    }
     XBitSet scope = pmc.unionWith(component);
     if (TRACE) {
       System.out.println(indent() + "scope of cardinality " + scope.cardinality());
     }
     Set<XBitSet> focuses = new HashSet<>();
-    for (XBitSet pmc1: side.pmcs) {
-      if (pmc1.cardinality() > width || !pmc1.isSubset(scope)) {
+    // the pmcs of the side are all in its pmcMap, with their subblocks
+    assert side.pending.isEmpty();
+    for (PMC pmc1: side.pmcMap.values()) {
+      if (pmc1.vertices.cardinality() > width || !pmc1.vertices.isSubset(scope)) {
         continue;
       }
       XBitSet focus = getFocus(scope, pmc1);
@@ -150,105 +317,408 @@ public class HBTMerge {
     XBitSet[] fa = new XBitSet[focuses.size()];
     focuses.toArray(fa);
     Arrays.sort(fa, XBitSet.cardinalityComparator);
-    for (int i = 0; i < Math.min(fa.length, N_TRY); i++) {
-      XBitSet focus = fa[i];
-      LocalGraph local = new LocalGraph(g, focus);
-      Graph h = local.h;
-
-      TreeDecomposition td = null;
-      if (h.n <= baseSize) {
-//        td = SemiPID.decompose(h, false);
-        td = SemiPID.decompose(h);
-        if (TRACE_MERGE) {
-          System.out.println(indent() + "exact td of width " + td.width + ", baseSize = " + baseSize);
+    int nTry = Math.min(fa.length, N_TRY);
+    if (focusCacheWidth != width) {
+      // the pmcs taken from a focus depend on the width
+      focusCache.clear();
+      focusCacheWidth = width;
+    }
+    ArrayList<ArrayList<XBitSet>> results = new ArrayList<>();
+    int nMiss = 0;
+    for (int i = 0; i < nTry; i++) {
+      ArrayList<XBitSet> found = focusCache.get(fa[i]);
+      if (found == null) {
+        focusMisses++;
+        nMiss++;
+      }
+      else {
+        focusHits++;
+      }
+      results.add(found);
+    }
+    if (FOCUS_THREADS > 1 && nMiss > 1) {
+      ArrayList<Future<ArrayList<XBitSet>>> futures = new ArrayList<>();
+      ExecutorService pool = focusPool();
+      for (int i = 0; i < nTry; i++) {
+        XBitSet focus = fa[i];
+        futures.add(results.get(i) != null ? null : 
+          pool.submit(() -> evaluateFocus(focus)));
+      }
+      for (int i = 0; i < nTry; i++) {
+        if (futures.get(i) == null) {
+          continue;
         }
-        if (td.width <= width) {
-          Graph f = h.copy();
-          for (int b = 1; b <= td.nb; b++) {
-            XBitSet bag = new XBitSet(td.bags[b]);
-            for (int j = 0; j < td.neighbor[b].length; j++) {
-              int b1 = td.neighbor[b][j];
-              if (b1 > b) {
-                XBitSet bag1 = new XBitSet(td.bags[b1]);
-                XBitSet sep = bag.intersectWith(bag1);
-                f.fill(sep);
-              }
-            }
-          }
-          MMAF mmaf1 = new MMAF(f);
-          mmaf1.triangulate();
-          //          assert mmaf1.width <= td.width;
-          if (TRACE) {
-            System.out.println(indent() + "triangulated with width " + mmaf1.width);
-          }
-          Chordal chordal = new Chordal(f);
-          Set<XBitSet> cliques = chordal.maximalCliques();
-          for (XBitSet clique: cliques) {
-            assert h.isPMC(clique);
-            XBitSet pmc1 = clique.convert(local.inv);
-            assert g.isCliquish(pmc1);
-            if (g.fullComponents(pmc1).isEmpty()) {
-              pmcs.add(pmc1);
+        if (cancelled) {
+          for (int j = i; j < nTry; j++) {
+            if (futures.get(j) != null) {
+              futures.get(j).cancel(false);
             }
           }
+          return;
+        }
+        try {
+          results.set(i, futures.get(i).get());
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+          throw new RuntimeException(e.getCause());
         }
+        focusCache.put(fa[i], results.get(i));
       }
-      else {
-        MMAF mmaf = new MMAF(h);
-        mmaf.triangulate();
-        if (TRACE_MERGE) {
-          System.out.println(indent() + "mmaf td of width " + mmaf.width);
+    }
+    else {
+      for (int i = 0; i < nTry; i++) {
+        if (cancelled) {
+          return;
         }
+        if (results.get(i) == null) {
+          results.set(i, evaluateFocus(fa[i]));
+          focusCache.put(fa[i], results.get(i));
+        }
+      }
+    }
+    // merged in the order of the focuses, as in the sequential evaluation
+    for (ArrayList<XBitSet> found: results) {
+      addPMCs(found);
+    }
+    addPMCs(side.pmcs);
+    int w = dp();
+    assert w <= width;
+    assert w <= side.width;
+    if (w < width) {
+      width = w;
+      if (TRACE) {
+        System.out.println(indent() + "improved upperbound " + width);
+      }
+      evicted = new CompactXBitSetSet(g.n);
+      optimalTriangulation();
+    }
+    enforceBudget();
+  }
 
-        if (mmaf.width <= width) {
-          Chordal chordal = new Chordal(h);
-          Set<XBitSet> pmcs1 = chordal.maximalCliques();
-          for (XBitSet pmc1: pmcs1) {
-            assert h.isPMC(pmc1);
-            XBitSet pmc2 = pmc1.convert(local.inv);
-            assert g.isCliquish(pmc2);
-            if (g.fullComponents(pmc2).isEmpty()) {
-              pmcs.add(pmc2);
+  /**
+   * Triangulates the subgraph induced by the focus, exactly if the focus
+   * is small and greedily otherwise, and collects the maximal cliques
+   * that are potential maximal cliques of the whole graph.
+   * Leaves the fields untouched, so that focuses can be evaluated
+   * concurrently.
+   * @param focus the vertex set of the focus
+   * @return the list of the potential maximal cliques found
+   */
+  ArrayList<XBitSet> evaluateFocus(XBitSet focus) {
+    ArrayList<XBitSet> found = new ArrayList<>();
+    LocalGraph local = new LocalGraph(g, focus);
+    Graph h = local.h;
+
+    TreeDecomposition td = null;
+    if (h.n <= baseSize && 
+        TWCache.getInstance().isFeasible(h, width) == Boolean.FALSE) {
+      // known to be of larger width: no pmc would be taken from the result
+      return found;
+    }
+    if (h.n <= baseSize) {
+//      td = SemiPID.decompose(h, false);
+      td = SemiPID.decompose(h);
+      if (TRACE_MERGE) {
+        System.out.println(indent() + "exact td of width " + td.width + ", baseSize = " + baseSize);
+      }
+      if (td.width <= width) {
+        Graph f = h.copy();
+        for (int b = 1; b <= td.nb; b++) {
+          XBitSet bag = new XBitSet(td.bags[b]);
+          for (int j = 0; j < td.neighbor[b].length; j++) {
+            int b1 = td.neighbor[b][j];
+            if (b1 > b) {
+              XBitSet bag1 = new XBitSet(td.bags[b1]);
+              XBitSet sep = bag.intersectWith(bag1);
+              f.fill(sep);
             }
           }
         }
+        MMAF mmaf1 = new MMAF(f);
+        mmaf1.triangulate();
+        //          assert mmaf1.width <= td.width;
+        if (TRACE) {
+          System.out.println(indent() + "triangulated with width " + mmaf1.width);
+        }
+        Chordal chordal = new Chordal(f);
+        Set<XBitSet> cliques = chordal.maximalCliques();
+        for (XBitSet clique: cliques) {
+          assert h.isPMC(clique);
+          XBitSet pmc1 = clique.convert(local.inv);
+          assert g.isCliquish(pmc1);
+          if (g.fullComponents(pmc1).isEmpty()) {
+            found.add(pmc1);
+          }
+        }
+      }
+    }
+    else {
+      MMAF mmaf = new MMAF(h);
+      mmaf.triangulate();
+      if (TRACE_MERGE) {
+        System.out.println(indent() + "mmaf td of width " + mmaf.width);
+      }
+
+      if (mmaf.width <= width) {
+        Chordal chordal = new Chordal(h);
+        Set<XBitSet> pmcs1 = chordal.maximalCliques();
+        for (XBitSet pmc1: pmcs1) {
+          assert h.isPMC(pmc1);
+          XBitSet pmc2 = pmc1.convert(local.inv);
+          assert g.isCliquish(pmc2);
+          if (g.fullComponents(pmc2).isEmpty()) {
+            found.add(pmc2);
+          }
+        }
+      }
+    }
+    return found;
+  }
+
+  /**
+   * Takes in potential maximal cliques found by other chains
+   * @param found potential maximal cliques of the graph
+   * @return {@code true} if the width has improved
+   */
+  boolean absorb(Collection<XBitSet> found) {
+    boolean added = false;
+    for (XBitSet pmc: found) {
+      // larger ones cannot be in a triangulation of the current width
+      if (pmc.cardinality() <= width + 1 && !evicted.contains(pmc) && addPMC(pmc)) {
+        added = true;
       }
     }
-    pmcs.addAll(side.pmcs);
+    if (!added) {
+      return false;
+    }
     int w = dp();
     assert w <= width;
-    assert w <= side.width;
     if (w < width) {
       width = w;
       if (TRACE) {
-        System.out.println(indent() + "improved upperbound " + width);
+        System.out.println(indent() + "improved upperbound by absorption " + width);
       }
+      evicted = new CompactXBitSetSet(g.n);
       optimalTriangulation();
-      filter();
+      enforceBudget();
+      return true;
+    }
+    enforceBudget();
+    return false;
+  }
+
+  static synchronized ExecutorService focusPool() {
+    if (focusPool == null) {
+      focusPool = Executors.newFixedThreadPool(FOCUS_THREADS, r -> {
+        Thread t = new Thread(r, "HBTMerge-focus");
+        t.setDaemon(true);
+        return t;
+      });
+    }
+    return focusPool;
+  }
+
+  /**
+   * Evicts pmcs if the process is over the budget of {@code PMCBudget},
+   * down to the share of this chain: first those whose width
+   * exceeds the current upper bound, and then, if still necessary, those
+   * that have not been in the optimal triangulation for
+   * {@code STALE_ROUNDS} rounds, the least recently used first.
+   * The pmcs of the optimal triangulation are never evicted, nor are
+   * those added in the last {@code STALE_ROUNDS} rounds, so that the
+   * budget may be exceeded by the intake of those rounds.
+   * As the widths of blocks may increase by the removal of pmcs,
+   * the blocks and pmcs are rebuilt after an eviction.
+   * The evicted pmcs are remembered in a compact set, so that they are
+   * not taken in again until the width improves.
+   */
+  void enforceBudget() {
+    round++;
+    for (PMC pmc: optimal) {
+      pmc.lastUsed = round;
+    }
+    long bytes = charge();
+    if (bytes > peakBytes) {
+      peakBytes = bytes;
+    }
+    PMCBudget pmcBudget = PMCBudget.getInstance();
+    if (!pmcBudget.isOver()) {
+      return;
+    }
+    nEvictions++;
+    long goal = pmcBudget.goal(bytes);
+    long perPMC = pmcBytes();
+    ArrayList<PMC> kept = new ArrayList<>();
+    for (PMC pmc: pmcMap.values()) {
+      // the full width of a pmc deep in the optimal triangulation may
+      // exceed the bound, through its subblocks on the other side
+      if (pmc.width > width && pmc.lastUsed != round) {
+        evictedWide++;
+      }
+      else {
+        kept.add(pmc);
+      }
+    }
+    int n = kept.size();
+    if (n * perPMC > goal) {
+      kept.sort((p, q) -> q.lastUsed - p.lastUsed);
+      while (n * perPMC > goal && round - kept.get(n - 1).lastUsed >= STALE_ROUNDS) {
+        n--;
+        evictedStale++;
+      }
+    }
+    if (TRACE_FILTER) {
+      System.out.println(indent() + "evicting " + (pmcMap.size() - n) + 
+          " of " + pmcMap.size() + " pmcs");
+    }
+    pmcs = new HashSet<>();
+    pending = new ArrayList<>();
+    for (int i = 0; i < n; i++) {
+      addPMC(kept.get(i).vertices);
+    }
+    for (PMC pmc: pmcMap.values()) {
+      if (!pmcs.contains(pmc.vertices)) {
+        evicted.add(pmc.vertices);
+      }
+    }
+    Map<XBitSet, PMC> old = pmcMap;
+    blockMap = null;
+    pmcMap = null;
+    int w = dp();
+    assert w == width;
+    for (PMC pmc: pmcMap.values()) {
+      pmc.lastUsed = old.get(pmc.vertices).lastUsed;
+    }
+    optimalTriangulation();
+    for (PMC pmc: optimal) {
+      pmc.lastUsed = round;
+    }
+    charge();
+  }
+
+  /**
+   * Charges the change of the occupation of this chain to the
+   * {@code PMCBudget}
+   * @return the current occupation
+   */
+  long charge() {
+    long bytes = bytes();
+    PMCBudget.getInstance().charge(bytes - charged);
+    charged = bytes;
+    return bytes;
+  }
+
+  /**
+   * Gives the bytes charged by this chain of merges back to the
+   * {@code PMCBudget}; the chain is not to be improved afterwards
+   */
+  void release() {
+    for (HBTMerge m = this; m != null; m = m.side) {
+      PMCBudget.getInstance().charge(-m.charged);
+      m.charged = 0;
     }
   }
 
+  /**
+   * @return the approximate number of bytes occupied by the pmcs and blocks,
+   * and by the record of the evicted pmcs
+   */
+  long bytes() {
+    return pmcs.size() * pmcBytes() + 
+        (blockMap == null ? 0 : blockMap.size()) * 
+        (2 * xBitSetBytes() + BLOCK_OVERHEAD) +
+        evicted.bytes();
+  }
+
+  long pmcBytes() {
+    return xBitSetBytes() + PMC_OVERHEAD;
+  }
+
+  long xBitSetBytes() {
+    return 56 + 8 * ((g.n + 63) / 64);
+  }
+
+  /**
+   * @return the statistics of the pmc pools of this chain of merges
+   */
+  public String poolStats() {
+    StringBuilder sb = new StringBuilder();
+    for (HBTMerge m = this; m != null; m = m.side) {
+      sb.append("depth " + m.depth + ": " + m.pmcs.size() + " pmcs, " + 
+          m.blockMap.size() + " blocks, " + m.bytes() / 1024 + "KB (peak " + 
+          Math.max(m.peakBytes, m.bytes()) / 1024 + "KB), " + 
+          m.nEvictions + " evictions: " + m.evictedWide + " wide, " + 
+          m.evictedStale + " stale\n");
+    }
+    return sb.toString();
+  }
+
+  /**
+   * @return the number of focuses found in the caches of this chain of merges
+   */
+  public long getFocusHits() {
+    long hits = 0;
+    for (HBTMerge m = this; m != null; m = m.side) {
+      hits += m.focusHits;
+    }
+    return hits;
+  }
+
+  /**
+   * @return the number of focuses evaluated by this chain of merges
+   */
+  public long getFocusMisses() {
+    long misses = 0;
+    for (HBTMerge m = this; m != null; m = m.side) {
+      misses += m.focusMisses;
+    }
+    return misses;
+  }
+
   XBitSet largestComponent(XBitSet pmc) {
-    ArrayList<XBitSet> components = g.separatedComponents(pmc);
+    assert pending.isEmpty();
     XBitSet largest = null;
-    for (XBitSet compo: components) {
-      if (largest == null || compo.cardinality() > largest.cardinality() ) {
-        largest = compo;
+    for (Block block: pmcMap.get(pmc).subblock) {
+      if (largest == null || block.component.cardinality() > largest.cardinality() ) {
+        largest = block.component;
       }
     }
     return largest;
   }
 
-  XBitSet getFocus(XBitSet scope, XBitSet pmc) {
-    ArrayList<XBitSet> components = g.separatedComponents(pmc);
-    for (XBitSet compo: components) {
-      if (!compo.isSubset(scope)) {
-        return compo.unionWith(g.neighborSet(compo)).intersectWith(scope);
+  XBitSet getFocus(XBitSet scope, PMC pmc) {
+    for (Block block: pmc.subblock) {
+      if (!block.component.isSubset(scope)) {
+        return block.component.unionWith(block.separator).intersectWith(scope);
       }
     }
     return null;
   }
 
+  boolean addPMC(XBitSet pmc) {
+    if (pmcs.add(pmc)) {
+      pending.add(pmc);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Adds the given pmcs, except those evicted since the width last
+   * improved, so that the pmcs of the side evicted here do not come back
+   * on every merge
+   * @param found potential maximal cliques of the graph
+   */
+  void addPMCs(Collection<XBitSet> found) {
+    for (XBitSet pmc: found) {
+      if (!evicted.contains(pmc)) {
+        addPMC(pmc);
+      }
+    }
+  }
+
   XBitSet randomPMC() {
     XBitSet[] pa = new XBitSet[pmcs.size()];
     pmcs.toArray(pa);
@@ -256,25 +726,6 @@ public class HBTMerge {
     return pa[r];
   }
   
-  void filter() {
-    if (TRACE_FILTER) {
-      System.out.println("filtering " + blockMap.size() + " blocks and " + pmcMap.size() + " pmcs");
-    }
-    Set<XBitSet> pmcsToKeep = new HashSet<>();
-
-    for (PMC pmc : pmcMap.values()) {
-      if (pmc.width <= width ) {
-        pmcsToKeep.add(pmc.vertices);
-      }
-    }
-    pmcMap.clear();
-    blockMap.clear();
-    
-    for (XBitSet pmc: pmcsToKeep) {
-      makePMC(pmc);
-    }
-  }
-
   void filterOld() {
     if (TRACE_FILTER) {
       System.out.println("filtering " + blockMap.size() + " blocks and " + pmcMap.size() + " pmcs");
@@ -332,51 +783,74 @@ public class HBTMerge {
     return max;
   }
 
+  /**
+   * Brings the blocks and pmcs up to date with the pmcs added since
+   * the last call. Only the new pmcs are constructed, and only the
+   * blocks that are new, have got a new cap, or have a cap with a
+   * subblock whose width has decreased, are evaluated again,
+   * in the increasing order of their sizes. Likewise, only the widths
+   * of the new pmcs and of the users of those blocks are computed again.
+   * As pmcs are only added, the width of a block or a pmc never
+   * increases, so that a pmc of the minimum width is kept without
+   * scanning all of them.
+   * @return the minimum width of the pmcs
+   */
   int dp() {
     if (TRACE_DP) {
       System.out.println(indent() + "dp ...");
     }
-    blockMap = new HashMap<>();
-    pmcMap = new HashMap<>();
+    if (blockMap == null) {
+      blockMap = new HashMap<>();
+      pmcMap = new HashMap<>();
+      dirty = new PriorityQueue<>();
+      stale = new ArrayList<>();
+      best = null;
+    }
 
-    for (XBitSet pmc: pmcs) {
+    for (XBitSet pmc: pending) {
       makePMC(pmc);
     }
+    pending.clear();
     if (TRACE_DP) {
       System.out.println(indent() + blockMap.size() + " blocks, " + 
-          pmcMap.size() + " pmcs");
+          pmcMap.size() + " pmcs, " + dirty.size() + " dirty");
     }
 
-    Block[] ba = new Block[blockMap.size()];
-    blockMap.values().toArray(ba);
-
-    Arrays.sort(ba);
-
-    for (Block block : ba) {
+    while (!dirty.isEmpty()) {
+      Block block = dirty.poll();
+      block.queued = false;
+      int old = block.width;
       block.evaluate();
+      if (block.width != old) {
+        for (PMC user: block.users) {
+          user.markStale();
+          for (Block sb: user.superblock) {
+            if (block.component.isSubset(sb.component)) {
+              sb.markDirty();
+            }
+          }
+        }
+      }
     }
 
-    for (PMC pmc : pmcMap.values()) {
+    for (PMC pmc: stale) {
+      pmc.stale = false;
       pmc.computeWidth();
-    }
-
-    int value = g.n - 1;
-    for (PMC pmc : pmcMap.values()) {
-      if (pmc.width < value) {
-        value = pmc.width;
+      if (best == null || pmc.width < best.width) {
+        best = pmc;
       }
     }
+    stale.clear();
 
-    return value;
+    return best == null ? g.n - 1 : best.width;
   }
 
   void optimalTriangulation() {
     triangulated = g.copy();
-    for (PMC pmc : pmcMap.values()) {
-      if (pmc.width == width && pmc.allFeasible()) {
-        pmc.triangulate(g.all);
-        return;
-      }
+    optimal = new ArrayList<>();
+    if (best != null && best.width <= width) {
+      assert best.allFeasible();
+      best.triangulate(g.all);
     }
   }
 
@@ -388,6 +862,7 @@ public class HBTMerge {
       block = new Block(component);
       assert g.fullComponents(block.separator).size() >= 2;
       blockMap.put(component, block);
+      block.markDirty();
     }
     return block;
   }
@@ -399,15 +874,15 @@ public class HBTMerge {
     if (pmc == null) {
       pmc = new PMC(separator);
       pmcMap.put(separator, pmc);
+      pmc.markStale();
     }
     return pmc;
   }
 
   boolean allFeasible(XBitSet separator) {
-    ArrayList<XBitSet> components = g.separatedComponents(separator);
-    for (XBitSet compo : components) {
-      Block b = blockMap.get(compo);
-      assert b != null;
+    PMC pmc = pmcMap.get(separator);
+    assert pmc != null;
+    for (Block b : pmc.subblock) {
       if (!b.isFeasible()) {
         return false;
       }
@@ -497,13 +972,24 @@ public class HBTMerge {
     XBitSet component;
     XBitSet separator;
     Set<PMC> caps;
+    // the pmcs having this block as a subblock
+    ArrayList<PMC> users;
     int width;
     int nearness;
+    boolean queued;
 
     Block(XBitSet component) {
       this.component = component;
       separator = g.neighborSet(component);
       caps = new HashSet<PMC>();
+      users = new ArrayList<>();
+    }
+
+    void markDirty() {
+      if (!queued) {
+        queued = true;
+        dirty.add(this);
+      }
     }
 
     void triangulate() {
@@ -686,23 +1172,32 @@ public class HBTMerge {
   class PMC {
     XBitSet vertices;
     Block[] subblock;
+    // the blocks this pmc caps, the i-th on the separator of the i-th subblock
+    Block[] superblock;
     int width;
     boolean mark;
+    boolean stale;
+    // the last round in which this pmc was in the optimal triangulation
+    int lastUsed;
 
     PMC(XBitSet vertices) {
       super();
       //      assertPMC(separator);
 
       this.vertices = vertices;
+      lastUsed = round;
       assert g != null;
       ArrayList<XBitSet> components = g.separatedComponents(vertices);
       subblock = new Block[components.size()];
       for (int i = 0; i < subblock.length; i++) {
         XBitSet compo = components.get(i);
         subblock[i] = makeBlock(compo);
+        subblock[i].users.add(this);
       }
 
-      for (Block block : subblock) {
+      superblock = new Block[subblock.length];
+      for (int i = 0; i < subblock.length; i++) {
+        Block block = subblock[i];
         XBitSet sep = block.separator;
         XBitSet component = vertices.subtract(sep);
         XBitSet nb = g.neighborSet(component);
@@ -712,8 +1207,17 @@ public class HBTMerge {
           }
         }
         assert g.neighborSet(component).equals(sep);
-        Block superblock = makeBlock(component);
-        superblock.addCap(this);
+        superblock[i] = makeBlock(component);
+        if (superblock[i].addCap(this)) {
+          superblock[i].markDirty();
+        }
+      }
+    }
+
+    void markStale() {
+      if (!stale) {
+        stale = true;
+        HBTMerge.this.stale.add(this);
       }
     }
 
@@ -735,14 +1239,18 @@ public class HBTMerge {
       }
     }
 
+    /**
+     * @return the width of this pmc as a cap of the given component,
+     * leaving {@code width}, that of the whole graph, untouched
+     */
     int widthFor(XBitSet component) {
-      width = vertices.cardinality() - 1;
+      int w = vertices.cardinality() - 1;
       for (Block block : subblock) {
-        if (block.component.isSubset(component) && block.width > width) {
-          width = block.width;
+        if (block.component.isSubset(component) && block.width > w) {
+          w = block.width;
         }
       }
-      return width;
+      return w;
     }
 
     boolean isFeasible() {
@@ -752,6 +1260,7 @@ public class HBTMerge {
     void triangulate(XBitSet component) {
       assert widthFor(component) <= HBTMerge.this.width;
       triangulated.fill(vertices);
+      optimal.add(this);
       for (Block block : subblock) {
         if (block.component.isSubset(component)) {
           assert block.width <= HBTMerge.this.width;
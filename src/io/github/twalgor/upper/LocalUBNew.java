@@ -1,26 +1,101 @@
 package io.github.twalgor.upper;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
 
+import io.github.twalgor.common.Chordal;
+import io.github.twalgor.common.CompactXBitSetSet;
 import io.github.twalgor.common.Graph;
 import io.github.twalgor.common.LocalGraph;
+import io.github.twalgor.common.TreeDecomposition;
 import io.github.twalgor.common.XBitSet;
 import io.github.twalgor.greedy.MMAF;
 import io.github.twalgor.main.Shared;
 
 public class LocalUBNew {
+  // the number of HBTMerge chains run concurrently; 1 for the single chain
+  public static int PORTFOLIO = 1;
+  // the number of improvement steps of a chain between visits to the pool
+  public static int EXCHANGE_INTERVAL = 5;
+  static ExecutorService portfolioPool;
+
   Graph g;
   XBitSet vs;
   LocalGraph lg;
-  int ub;
+  volatile int ub;
   public int getUB() {
     return ub;
   }
+
+  // set when the improvement of this atom can no longer change the answer
+  volatile boolean cancelled;
+
+  /**
+   * Makes a running {@code improveUB} return at once: the current step of
+   * each HBTMerge chain of this atom is abandoned before its next focus is
+   * evaluated. The chains are released as soon as none of them runs.
+   */
+  public void cancel() {
+    cancelled = true;
+    HBTMerge m = hbtMerge;
+    if (m != null) {
+      m.cancel();
+    }
+    synchronized (this) {
+      if (chains != null) {
+        for (Chain chain: chains) {
+          if (chain.hbtMerge != null) {
+            chain.hbtMerge.cancel();
+          }
+        }
+      }
+      notifyAll();
+    }
+    if (!stepping.isHeldByCurrentThread() && stepping.tryLock()) {
+      try {
+        release();
+      } finally {
+        stepping.unlock();
+      }
+    }
+  }
   
   Shared shared;
+  // cancels the work on this atom; removed once it has done so
+  Shared.Listener listener;
   Graph triangulated;
   Random random;
-  HBTMerge hbtMerge;
+  volatile HBTMerge hbtMerge;
+  // held while improveUB runs, so that the state of the single chain is
+  // read or dropped only between its calls
+  ReentrantLock stepping;
+
+  // the pmcs of the triangulation given by seed, taken in by HBTMerge
+  ArrayList<XBitSet> seedPMCs;
+  // a compact copy of the pmcs of HBTMerge as of the latest save, for
+  // checkpointing; it holds no reference to the pmcs HBTMerge may evict
+  volatile Set<XBitSet> savedPMCs;
+  // the bytes of savedPMCs charged to the PMCBudget
+  long savedBytes;
+  volatile boolean saveRequested;
+
+  Chain[] chains;
+  PMCPool pmcPool;
+  // the fields below are guarded by this object in the portfolio mode
+  int target;
+  int bestWidth;
+  Graph bestTriangulated;
+  Throwable failure;
+  // the statistics of the chains released, guarded by this object
+  String releasedStats;
+  long releasedHits;
+  long releasedMisses;
   
   public LocalUBNew(Graph g, XBitSet vs, Shared shared) {
     this.g = g;
@@ -29,8 +104,27 @@ public class LocalUBNew {
     lg = new LocalGraph(g, vs);
     ub = lg.h.n - 1;
     random = new Random(1);
+    stepping = new ReentrantLock();
+    releasedStats = "";
+    // the work on this atom is cancelled as soon as the lower bound
+    // reaches its upper bound, in the middle of a step
+    listener = s -> {
+      if (!cancelled && (ub <= s.getLB() || s.getStop())) {
+        cancel();
+        s.removeListener(listener);
+      }
+    };
+    shared.addListener(listener);
   }
   
+  /**
+   * @return {@code true} if the upper bound is known to be the treewidth
+   * of the atom, by the minimum degree lower bound
+   */
+  public boolean isOptimal() {
+    return ub <= lg.h.minDegree();
+  }
+
   public Graph getGraph() {
     return lg.h;
   }
@@ -44,20 +138,454 @@ public class LocalUBNew {
   }
 
   public void improveUB() {
+    stepping.lock();
+    try {
+      if (cancelled) {
+        return;
+      }
+      if (PORTFOLIO > 1) {
+        improveUBByPortfolio();
+      }
+      else {
+        improveUBByChain();
+      }
+      if (cancelled || ub <= shared.getLB()) {
+        release();
+      }
+    } finally {
+      stepping.unlock();
+    }
+  }
+
+  void improveUBByChain() {
     if (hbtMerge == null) {
       hbtMerge = new HBTMerge(lg.h, 0, random);
+      if (cancelled) {
+        hbtMerge.cancel();
+      }
       hbtMerge.initialize();
+      if (seedPMCs != null) {
+        hbtMerge.absorb(seedPMCs);
+      }
+      saveIfRequested();
     }
-    while (hbtMerge.width >= ub && ub > shared.getLB()) {
+    while (hbtMerge.width >= ub && ub > shared.getLB() && !cancelled) {
       hbtMerge.improve();
+      saveIfRequested();
     }
     if (hbtMerge.width < ub) {
-      ub = hbtMerge.width;
-      triangulated = hbtMerge.triangulated;
+      synchronized (this) {
+        ub = hbtMerge.width;
+        triangulated = hbtMerge.triangulated;
+      }
+    }
+  }
+
+  /**
+   * Runs {@code PORTFOLIO} chains with different seeds until one of them
+   * goes below the current upper bound. The chains survive across calls
+   * and exchange their potential maximal cliques through a shared pool.
+   * This method returns as soon as the bound is improved: a chain in the
+   * middle of a step finishes the step in the background and goes on with
+   * the bound of the next call, if that call comes before the step ends.
+   */
+  void improveUBByPortfolio() {
+    if (chains == null) {
+      chains = new Chain[PORTFOLIO];
+      for (int i = 0; i < chains.length; i++) {
+        // the first chain is the one of the single chain mode
+        chains[i] = new Chain(i == 0 ? random : new Random(1 + i));
+      }
+      pmcPool = new PMCPool(lg.h.n);
+      if (seedPMCs != null) {
+        pmcPool.offer(seedPMCs);
+      }
+      bestWidth = ub;
+    }
+    synchronized (this) {
+      target = ub;
+      for (Chain chain: chains) {
+        if (!chain.running) {
+          chain.running = true;
+          portfolioPool().execute(chain);
+        }
+      }
+      while (bestWidth >= ub && failure == null && !cancelled && anyRunning()) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new RuntimeException(e);
+        }
+      }
+      if (failure != null) {
+        throw new RuntimeException(failure);
+      }
+      if (bestWidth < ub) {
+        ub = bestWidth;
+        triangulated = bestTriangulated;
+      }
+    }
+  }
+
+  boolean anyRunning() {
+    if (chains == null) {
+      return false;
+    }
+    for (Chain chain: chains) {
+      if (chain.running) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  static synchronized ExecutorService portfolioPool() {
+    if (portfolioPool == null) {
+      // not bounded: the chains of a previous atom may still be
+      // finishing their steps
+      portfolioPool = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "LocalUB-portfolio");
+        t.setDaemon(true);
+        return t;
+      });
+    }
+    return portfolioPool;
+  }
+
+  class Chain implements Runnable {
+    Random random;
+    volatile HBTMerge hbtMerge;
+    // guarded by the enclosing LocalUBNew
+    boolean running;
+    // the position in the pool up to which the pmcs have been taken in
+    volatile int taken;
+    int steps;
+
+    Chain(Random random) {
+      this.random = random;
+    }
+
+    @Override
+    public void run() {
+      try {
+        if (hbtMerge == null) {
+          hbtMerge = new HBTMerge(lg.h, 0, random);
+          if (cancelled) {
+            hbtMerge.cancel();
+          }
+          hbtMerge.initialize();
+          if (seedPMCs != null) {
+            exchange();
+          }
+          report();
+        }
+        while (proceed()) {
+          hbtMerge.improve();
+          if (++steps % EXCHANGE_INTERVAL == 0) {
+            exchange();
+          }
+          report();
+        }
+      } catch (Throwable e) {
+        synchronized (LocalUBNew.this) {
+          failure = e;
+          running = false;
+          LocalUBNew.this.notifyAll();
+        }
+      }
+    }
+
+    boolean proceed() {
+      synchronized (LocalUBNew.this) {
+        if (bestWidth >= target && target > shared.getLB() && !cancelled) {
+          return true;
+        }
+        running = false;
+        LocalUBNew.this.notifyAll();
+        if (cancelled || target <= shared.getLB()) {
+          release();
+        }
+        return false;
+      }
+    }
+
+    void exchange() {
+      pmcPool.offer(hbtMerge.pmcs);
+      List<XBitSet> arrived;
+      synchronized (pmcPool) {
+        arrived = pmcPool.since(taken);
+        taken = pmcPool.end();
+      }
+      hbtMerge.absorb(arrived);
+      int minTaken = taken;
+      for (Chain chain: chains) {
+        minTaken = Math.min(minTaken, chain.taken);
+      }
+      int w;
+      synchronized (LocalUBNew.this) {
+        w = bestWidth;
+      }
+      pmcPool.evict(w, minTaken);
+    }
+
+    void report() {
+      synchronized (LocalUBNew.this) {
+        if (hbtMerge.width < bestWidth) {
+          bestWidth = hbtMerge.width;
+          // optimalTriangulation replaces, never modifies, the graph
+          bestTriangulated = hbtMerge.triangulated;
+          LocalUBNew.this.notifyAll();
+        }
+      }
     }
   }
   
-  public void fillTriangulation(Graph tr) {
+  /**
+   * Drops the HBTMerge chains and the pool of this atom, which can no
+   * longer change the answer, and gives their bytes back to the
+   * {@code PMCBudget}; their statistics are kept. In the portfolio mode,
+   * the chains are dropped when the last of them stops.
+   * The caller holds {@code stepping} or is the last chain to stop.
+   */
+  synchronized void release() {
+    if (hbtMerge != null) {
+      releasedStats += hbtMerge.poolStats();
+      releasedHits += hbtMerge.getFocusHits();
+      releasedMisses += hbtMerge.getFocusMisses();
+      hbtMerge.release();
+      hbtMerge = null;
+    }
+    if (chains != null && !anyRunning()) {
+      releasedStats += pmcPool + "\n";
+      for (int i = 0; i < chains.length; i++) {
+        HBTMerge m = chains[i].hbtMerge;
+        if (m != null) {
+          releasedStats += "chain " + i + "\n" + m.poolStats();
+          releasedHits += m.getFocusHits();
+          releasedMisses += m.getFocusMisses();
+          m.release();
+        }
+      }
+      pmcPool.release();
+      chains = null;
+      pmcPool = null;
+    }
+    releaseSaved();
+  }
+
+  /**
+   * @return the statistics of the pmc pools of the HBTMerge chains;
+   * empty if no chain has been started
+   */
+  public synchronized String poolStats() {
+    StringBuilder sb = new StringBuilder(releasedStats);
+    HBTMerge m = hbtMerge;
+    if (m != null) {
+      sb.append(m.poolStats());
+    }
+    if (chains != null) {
+      sb.append(pmcPool + "\n");
+      for (int i = 0; i < chains.length; i++) {
+        if (chains[i].hbtMerge != null && !chains[i].running) {
+          sb.append("chain " + i + "\n" + chains[i].hbtMerge.poolStats());
+        }
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * @return the hits and lookups of the focus caches of the HBTMerge chains
+   */
+  public synchronized String focusCacheStats() {
+    long hits = releasedHits;
+    long misses = releasedMisses;
+    HBTMerge m = hbtMerge;
+    if (m != null) {
+      hits += m.getFocusHits();
+      misses += m.getFocusMisses();
+    }
+    if (chains != null) {
+      for (Chain chain: chains) {
+        if (chain.hbtMerge != null && !chain.running) {
+          hits += chain.hbtMerge.getFocusHits();
+          misses += chain.hbtMerge.getFocusMisses();
+        }
+      }
+    }
+    long lookups = hits + misses;
+    return "focus cache: " + hits + " hits of " + lookups + " lookups" + 
+        (lookups == 0 ? "" : String.format(" (%.1f%%)", 100.0 * hits / lookups));
+  }
+
+  /**
+   * Saves a copy of the pmcs of HBTMerge if a checkpoint has asked for
+   * it; nothing is copied in a run without checkpoints
+   */
+  void saveIfRequested() {
+    if (!saveRequested) {
+      return;
+    }
+    saveRequested = false;
+    CompactXBitSetSet saved = new CompactXBitSetSet(lg.h.n, hbtMerge.pmcs.size());
+    saved.addAll(hbtMerge.pmcs);
+    synchronized (this) {
+      PMCBudget.getInstance().charge(saved.bytes() - savedBytes);
+      savedBytes = saved.bytes();
+      savedPMCs = saved;
+    }
+  }
+
+  /**
+   * Drops the saved copy of the pmcs, once a checkpoint has written it,
+   * and gives its bytes back to the {@code PMCBudget}
+   */
+  public synchronized void releaseSaved() {
+    PMCBudget.getInstance().charge(-savedBytes);
+    savedBytes = 0;
+    savedPMCs = null;
+  }
+
+  /**
+   * Asks for the pmcs of HBTMerge to be saved after the current step,
+   * as they are not safe to read while it runs
+   */
+  public void requestSave() {
+    saveRequested = true;
+  }
+
+  /**
+   * @return the pmcs of this atom: those in the pool of the portfolio,
+   * those of HBTMerge if {@code improveUB} is not running, or else those
+   * as of the latest save; those of the seed if none of these is there,
+   * as after the chains are released
+   */
+  public List<XBitSet> getSavedPMCs() {
+    PMCPool pool;
+    synchronized (this) {
+      pool = pmcPool;
+    }
+    if (pool != null) {
+      return pool.since(0);
+    }
+    if (stepping.tryLock()) {
+      try {
+        if (hbtMerge != null) {
+          return new ArrayList<>(hbtMerge.pmcs);
+        }
+      } finally {
+        stepping.unlock();
+      }
+    }
+    Set<XBitSet> saved = savedPMCs;
+    if (saved != null) {
+      return new ArrayList<>(saved);
+    }
+    return seedPMCs != null ? seedPMCs : new ArrayList<>();
+  }
+
+  /**
+   * Restores the state saved by a checkpoint: the triangulation is taken
+   * if it is a triangulation of the atom better than the current one,
+   * and the pmcs, together with those of {@code seed} if it has been
+   * called, are taken in by HBTMerge when it starts
+   * @param tr a graph on the vertices of the atom, numbered as in
+   * {@code getGraph()}
+   * @param pmcs the potential maximal cliques of the atom 
+   * @return {@code true} if the upper bound is improved
+   */
+  public synchronized boolean restore(Graph tr, List<XBitSet> pmcs) {
+    if (seedPMCs == null) {
+      seedPMCs = new ArrayList<>();
+    }
+    Set<XBitSet> known = new HashSet<>(seedPMCs);
+    for (XBitSet pmc: pmcs) {
+      if (!known.contains(pmc) && lg.h.isPMC(pmc)) {
+        seedPMCs.add(pmc);
+        known.add(pmc);
+      }
+    }
+    if (tr.n != lg.h.n || !tr.isChordal()) {
+      return false;
+    }
+    for (int v = 0; v < tr.n; v++) {
+      if (!tr.neighborSet[v].isSuperset(lg.h.neighborSet[v])) {
+        return false;
+      }
+    }
+    int width = Chordal.chordalToTD(tr).width;
+    if (width < ub) {
+      ub = width;
+      triangulated = tr;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Seeds the upper bound and the pmcs of HBTMerge from a triangulation
+   * of the whole graph, typically obtained in a previous run.
+   * The triangulation restricted to the atom, with the separators of the
+   * atom filled, is triangulated again if necessary; those of its maximal
+   * cliques that are potential maximal cliques of the atom are
+   * taken in by HBTMerge when it starts.
+   * @param tr a triangulation of the whole graph
+   * @return {@code true} if the upper bound is improved
+   */
+  public synchronized boolean seed(Graph tr) {
+    Graph f = lg.h.copy();
+    for (int v = 0; v < f.n; v++) {
+      XBitSet nb = tr.neighborSet[lg.inv[v]];
+      for (int w = nb.nextSetBit(0); w >= 0; w = nb.nextSetBit(w + 1)) {
+        if (lg.conv[w] > v) {
+          f.addEdge(v, lg.conv[w]);
+        }
+      }
+    }
+    MMAF mmaf = new MMAF(f);
+    mmaf.triangulate();
+    seedPMCs = new ArrayList<>();
+    for (XBitSet clique: new Chordal(f).maximalCliques()) {
+      if (lg.h.isPMC(clique)) {
+        seedPMCs.add(clique);
+      }
+    }
+    if (mmaf.width < ub) {
+      ub = mmaf.width;
+      triangulated = f;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * @return the current triangulation of the atom; it is replaced, 
+   * never modified, when the upper bound is improved
+   */
+  public synchronized Graph getTriangulated() {
+    return triangulated;
+  }
+
+  /**
+   * Computes the tree-decomposition of the atom given by its triangulation,
+   * with the vertices numbered as in the whole graph
+   * @param triangulated a triangulation of the atom 
+   * @return the tree-decomposition
+   */
+  public TreeDecomposition toGlobalTD(Graph triangulated) {
+    TreeDecomposition td = Chordal.chordalToTD(triangulated);
+    for (int b = 1; b <= td.nb; b++) {
+      int[] bag = td.bags[b];
+      for (int k = 0; k < bag.length; k++) {
+        bag[k] = lg.inv[bag[k]];
+      }
+    }
+    td.g = g;
+    return td;
+  }
+
+  public synchronized void fillTriangulation(Graph tr) {
     assert tr.n == g.n;
     for (int v = 0; v < triangulated.n; v++) {
       int v1 = lg.inv[v];
@@ -0,0 +1,71 @@
+package io.github.twalgor.upper;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The account of the bytes occupied by the potential maximal cliques
+ * kept in the process, by all the {@code HBTMerge} chains and
+ * {@code PMCPool}s together, against the budget
+ * {@code HBTMerge.POOL_BYTES}.
+ * Each holder charges the change of its own occupation, and evicts
+ * when the total is over the budget.
+ */
+public class PMCBudget {
+  private static PMCBudget instance;
+
+  public static synchronized PMCBudget getInstance() {
+    if (instance == null) {
+      instance = new PMCBudget();
+    }
+    return instance;
+  }
+
+  AtomicLong used;
+  AtomicLong peak;
+
+  PMCBudget() {
+    used = new AtomicLong();
+    peak = new AtomicLong();
+  }
+
+  /**
+   * Adds the given number of bytes, negative for a release, to the total
+   * @param delta the change of the occupation of a holder
+   */
+  public void charge(long delta) {
+    long u = used.addAndGet(delta);
+    if (delta > 0) {
+      peak.accumulateAndGet(u, Math::max);
+    }
+  }
+
+  public long getUsed() {
+    return used.get();
+  }
+
+  public long getLimit() {
+    return HBTMerge.POOL_BYTES;
+  }
+
+  public boolean isOver() {
+    return used.get() > getLimit();
+  }
+
+  /**
+   * The occupation a holder should evict down to, when the total is over
+   * the budget: its share of three quarters of the budget, in proportion
+   * to its occupation, so as not to evict again on the next round
+   * @param bytes the occupation of the holder
+   * @return the number of bytes to be kept
+   */
+  public long goal(long bytes) {
+    long u = Math.max(used.get(), 1);
+    return (long) ((double) bytes * (getLimit() / 4 * 3) / u);
+  }
+
+  @Override
+  public String toString() {
+    return "pmc budget: " + getUsed() / 1024 + "KB used (peak " +
+        peak.get() / 1024 + "KB) of " + getLimit() / 1024 + "KB";
+  }
+}
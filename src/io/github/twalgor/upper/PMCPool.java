@@ -0,0 +1,148 @@
+package io.github.twalgor.upper;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import io.github.twalgor.common.CompactXBitSetSet;
+import io.github.twalgor.common.XBitSet;
+
+/**
+ * A pool of potential maximal cliques shared by concurrent
+ * {@code HBTMerge} chains on the same graph.
+ * The members are also kept in the order of arrival, so that
+ * a chain can fetch only the members offered since its last visit.
+ * The pool is charged to the {@code PMCBudget} and evicts members when
+ * the process is over the budget; every member ever offered is
+ * remembered in a compact set, so that an evicted one is not offered
+ * again.
+ */
+public class PMCPool {
+  // the XBitSet, its word array and the slot in the arrivals
+  static final int ENTRY_OVERHEAD = 80;
+
+  CompactXBitSetSet seen;
+  // the members from the position first on; null for an evicted one
+  ArrayList<XBitSet> arrivals;
+  int first;
+  int live;
+  long entryBytes;
+  long charged;
+  long evictedWide;
+  long evictedOld;
+
+  public PMCPool(int n) {
+    seen = new CompactXBitSetSet(n);
+    arrivals = new ArrayList<>();
+    entryBytes = 8 * ((n + 63) / 64) + ENTRY_OVERHEAD;
+  }
+
+  /**
+   * Adds the given potential maximal cliques to the pool
+   * @param pmcs the potential maximal cliques
+   * @return the number of those never in the pool before
+   */
+  public synchronized int offer(Collection<XBitSet> pmcs) {
+    int added = 0;
+    for (XBitSet pmc: pmcs) {
+      if (seen.add(pmc)) {
+        arrivals.add(pmc);
+        live++;
+        added++;
+      }
+    }
+    charge();
+    return added;
+  }
+
+  /**
+   * Returns the members that arrived at or after the given position
+   * and are not evicted
+   * @param from the position in the order of arrival
+   * @return the list of those members
+   */
+  public synchronized List<XBitSet> since(int from) {
+    ArrayList<XBitSet> result = new ArrayList<>();
+    for (int i = Math.max(from - first, 0); i < arrivals.size(); i++) {
+      if (arrivals.get(i) != null) {
+        result.add(arrivals.get(i));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return the position next to the latest arrival
+   */
+  public synchronized int end() {
+    return first + arrivals.size();
+  }
+
+  /**
+   * Evicts members if the process is over the budget of {@code PMCBudget},
+   * down to the share of this pool: first those of more than
+   * {@code width + 1} vertices, which cannot be in a triangulation of
+   * the width, and then the oldest of those taken in by every chain
+   * @param width the best width of the chains
+   * @param taken the position up to which every chain has taken the
+   * members in
+   */
+  public synchronized void evict(int width, int taken) {
+    long bytes = charge();
+    PMCBudget budget = PMCBudget.getInstance();
+    if (!budget.isOver()) {
+      return;
+    }
+    long goal = budget.goal(bytes);
+    for (int i = 0; i < arrivals.size(); i++) {
+      XBitSet pmc = arrivals.get(i);
+      if (pmc != null && pmc.cardinality() > width + 1) {
+        arrivals.set(i, null);
+        live--;
+        evictedWide++;
+      }
+    }
+    int trim = 0;
+    while (trim < taken - first && bytes() > goal) {
+      if (arrivals.get(trim) != null) {
+        live--;
+        evictedOld++;
+      }
+      trim++;
+    }
+    arrivals.subList(0, trim).clear();
+    first += trim;
+    charge();
+  }
+
+  long charge() {
+    long bytes = bytes();
+    PMCBudget.getInstance().charge(bytes - charged);
+    charged = bytes;
+    return bytes;
+  }
+
+  /**
+   * Gives the bytes charged by this pool back to the {@code PMCBudget};
+   * the pool is not to be used afterwards
+   */
+  synchronized void release() {
+    PMCBudget.getInstance().charge(-charged);
+    charged = 0;
+  }
+
+  long bytes() {
+    return live * entryBytes + 8L * (arrivals.size() - live) + seen.bytes();
+  }
+
+  public synchronized int size() {
+    return live;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "pmc pool: " + live + " pmcs, " + bytes() / 1024 + "KB, " +
+        seen.size() + " offered, evicted " + evictedWide + " wide, " +
+        evictedOld + " old";
+  }
+}